@@ -83,6 +83,29 @@ INSERT INTO `chat_history` VALUES (1971539548287033345,'喂喂喂喂你好','use
 /*!40000 ALTER TABLE `chat_history` ENABLE KEYS */;
 UNLOCK TABLES;
 
+--
+-- Table structure for table `chat_usage`
+--
+
+DROP TABLE IF EXISTS `chat_usage`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!50503 SET character_set_client = utf8mb4 */;
+CREATE TABLE `chat_usage` (
+  `id` bigint NOT NULL AUTO_INCREMENT COMMENT 'id',
+  `user_id` bigint NOT NULL COMMENT '用户id',
+  `app_id` bigint NOT NULL COMMENT '应用id',
+  `usage_date` date NOT NULL COMMENT '统计日期',
+  `prompt_tokens` bigint NOT NULL DEFAULT '0' COMMENT '输入token数',
+  `completion_tokens` bigint NOT NULL DEFAULT '0' COMMENT '输出token数',
+  `turns` bigint NOT NULL DEFAULT '0' COMMENT '对话轮数',
+  `create_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  `update_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE KEY `uk_userId_appId_usageDate` (`user_id`,`app_id`,`usage_date`) USING BTREE,
+  KEY `idx_appId_usageDate` (`app_id`,`usage_date`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci ROW_FORMAT=DYNAMIC COMMENT='对话token用量';
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 --
 -- Table structure for table `user`
 --
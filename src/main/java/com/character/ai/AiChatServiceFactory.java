@@ -1,14 +1,18 @@
 package com.character.ai;
 
 
-import com.character.model.entity.App;
-import com.character.service.AppService;
+import com.character.ai.model.PrefetchingEmbeddingModel;
+import com.character.ai.rag.HybridRetriever;
+import com.character.ai.rag.QueryEmbeddingCache;
+import com.character.ai.rag.RetrievalRouter;
+import com.character.config.ChatMemoryConfig;
 import com.character.service.ChatHistoryService;
 import com.character.util.SpringContextUtil;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import dev.langchain4j.community.store.memory.chat.redis.RedisChatMemoryStore;
 import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.memory.ChatMemory;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.StreamingChatModel;
@@ -16,18 +20,15 @@ import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.service.AiServices;
+import dev.langchain4j.store.embedding.EmbeddingStore;
 import dev.langchain4j.store.embedding.filter.Filter;
 import dev.langchain4j.store.embedding.filter.MetadataFilterBuilder;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
 
-import java.time.Duration;
-import java.util.List;
-
-import static com.character.constant.AppConstant.LIMIT_PROMPT;
 
 @Configuration
 @Slf4j
@@ -45,75 +46,130 @@ public class AiChatServiceFactory {
     @Resource
     private RedisChatMemoryStore redisChatMemoryStore;
     @Resource
-    @Lazy
-    private AppService appService;
-    @Resource
     private EmbeddingModel embeddingModel;
 //    @Resource
 //    private RagChatService ragChatService;
 @Resource
-    private InMemoryEmbeddingStore<TextSegment> embeddingStore;
+    private EmbeddingStore<TextSegment> embeddingStore;
+    @Resource
+    private ChatMetrics chatMetrics;
+    @Resource
+    private ChatMemoryConfig chatMemoryConfig;
+    @Resource
+    private AppPersonaCache appPersonaCache;
+    @Resource
+    private QueryEmbeddingCache queryEmbeddingCache;
+    @Resource
+    private RetrievalRouter retrievalRouter;
+    @Resource
+    private HybridRetriever hybridRetriever;
+
     /**
-     * AI 服务实例缓存
+     * AI 服务实例缓存，按应用共享，同一应用的所有用户通过 @MemoryId 区分记忆
      * 缓存策略：
-     * - 最大缓存 1000 个实例
-     * - 写入后 30 分钟过期
-     * - 访问后 10 分钟过期
+     * - 应用被修改或删除时随人设一起失效
+     * - 数量与访问过期时间见 ai.chat.memory 配置
      */
-    private final Cache<String, AiChatService> serviceCache = Caffeine.newBuilder()
-            .maximumSize(1000)
-            .expireAfterWrite(Duration.ofMinutes(30))
-            .expireAfterAccess(Duration.ofMinutes(10))
-            .removalListener((key, value, cause) -> {
-                log.debug("AI 服务实例被移除，缓存键: {}, 原因: {}", key, cause);
-            })
-            .build();
+    private Cache<Long, AiChatService> serviceCache;
+
+    /**
+     * 会话记忆缓存，key 为 memoryId（appId_userId）
+     * 消息本身存放在 Redis，这里只缓存轻量的窗口对象，并保证每个会话只从数据库加载一次历史
+     * 按记忆窗口大小计算权重，限制总权重而不是条数
+     */
+    private Cache<String, ChatMemory> chatMemoryCache;
+
+    @PostConstruct
+    public void initCaches() {
+        serviceCache = Caffeine.newBuilder()
+                .maximumSize(chatMemoryConfig.getMaxServices())
+                .expireAfterAccess(chatMemoryConfig.getServiceExpireAfterAccess())
+                .removalListener((key, value, cause) -> {
+                    log.debug("AI 服务实例被移除，appId: {}, 原因: {}", key, cause);
+                })
+                .build();
+        // 人设变更后检索过滤条件可能变化，丢弃依赖它的服务实例
+        appPersonaCache.addInvalidationListener(serviceCache::invalidate);
+        chatMemoryCache = Caffeine.newBuilder()
+                .maximumWeight(chatMemoryConfig.getCacheMaxWeight())
+                .weigher((String memoryId, ChatMemory memory) -> chatMemoryConfig.maxMessagesOf(parseAppId(memoryId)))
+                .expireAfterAccess(chatMemoryConfig.getExpireAfterAccess())
+                .build();
+    }
 
     /**
-     * 根据 appId和userId获取服务（带缓存）
+     * 根据 appId 获取服务（带缓存），调用时通过 memoryId 区分用户
      */
-    public AiChatService getAiCodeGeneratorService(long appId, Long userId) {
-        String cacheKey = buildCacheKey(appId, userId);
-        return serviceCache.get(cacheKey, key -> createAiChatService(appId, userId));
+    public AiChatService getAiChatService(long appId) {
+        return serviceCache.get(appId, key -> chatMetrics.recordStage("service_create",
+                () -> createAiChatService(appId)));
     }
 
     /**
-     * 构建缓存键
+     * 构建记忆id
      */
-    private String buildCacheKey(long appId, Long userId) {
+    public static String buildMemoryId(long appId, Long userId) {
         return appId + "_" + userId;
     }
 
+    /**
+     * 从记忆id中解析 appId
+     */
+    private static long parseAppId(String memoryId) {
+        return Long.parseLong(memoryId.substring(0, memoryId.indexOf('_')));
+    }
 
     /**
-     * 创建新的 AI 服务实例
+     * 根据记忆id获取会话记忆，首次访问时从数据库加载历史对话
      */
-    private AiChatService createAiChatService(long appId, Long userId) {
-        // 根据 appId 和 userId 构建独立的对话记忆
+    public ChatMemory getChatMemory(Object memoryId) {
+        return chatMemoryCache.get(memoryId.toString(), this::createChatMemory);
+    }
+
+    /**
+     * 创建会话记忆
+     */
+    private ChatMemory createChatMemory(String memoryId) {
+        long appId = parseAppId(memoryId);
+        Long userId = Long.valueOf(memoryId.substring(memoryId.indexOf('_') + 1));
+        int maxMessages = chatMemoryConfig.maxMessagesOf(appId);
         MessageWindowChatMemory chatMemory = MessageWindowChatMemory
                 .builder()
-                .id(appId + "_" + userId)
+                .id(memoryId)
                 .chatMemoryStore(redisChatMemoryStore)
-                .maxMessages(25)
+                .maxMessages(maxMessages)
                 .build();
         // 从数据库加载历史对话到记忆中
-        chatHistoryService.loadChatHistoryToMemory(appId, userId,chatMemory, 25);
+        chatHistoryService.loadChatHistoryToMemory(appId, userId, chatMemory, maxMessages);
+        return chatMemory;
+    }
+
+    /**
+     * 创建新的 AI 服务实例
+     */
+    private AiChatService createAiChatService(long appId) {
         // 使用多例模式的 StreamingChatModel 解决并发问题
-        App app = appService.getById(appId);
+        AppPersonaCache.AppPersona persona = appPersonaCache.get(appId);
         StreamingChatModel streamingChatModel = SpringContextUtil.getBean("streamingChatModelPrototype", StreamingChatModel.class);
         //String finalInitPrompt = initPrompt;
-        //使用appName进行过滤
-        Filter appNameFilter = MetadataFilterBuilder.metadataKey("appName").isEqualTo(app.getAppName());
-        ContentRetriever contentRetriever = EmbeddingStoreContentRetriever.builder()
+        //使用appName进行过滤，分区向量存储据此只检索该应用的分区
+        Filter appNameFilter = MetadataFilterBuilder.metadataKey("appName").isEqualTo(persona.appName());
+        ContentRetriever vectorRetriever = EmbeddingStoreContentRetriever.builder()
                 .embeddingStore(embeddingStore)
-                .embeddingModel(embeddingModel)
+                // 优先使用对话准备阶段并行算好的提问向量，其次查提问向量缓存
+                .embeddingModel(new PrefetchingEmbeddingModel(embeddingModel, queryEmbeddingCache))
                 .filter(appNameFilter)
+                .maxResults(hybridRetriever.vectorMaxResults())
                 .build();
+        // 寒暄、语气词等消息跳过检索，不计入检索耗时；向量检索与同一分区的 BM25 检索融合
+        ContentRetriever contentRetriever = retrievalRouter.route(chatMetrics.timedRetriever(
+                hybridRetriever.fuse(vectorRetriever, persona.appName())));
         return AiServices.builder(AiChatService.class)
                 .chatModel(chatModel)
                 .streamingChatModel(streamingChatModel)
-                .chatMemoryProvider(memoryId -> chatMemory)
-                .systemMessageProvider(chatMemoryId -> LIMIT_PROMPT + app.getInitPrompt())
+                .chatMemoryProvider(this::getChatMemory)
+                // 每次调用从人设缓存取，命中时返回同一个字符串，前缀保持稳定
+                .systemMessageProvider(chatMemoryId -> appPersonaCache.get(appId).systemPrompt())
                 .contentRetriever(contentRetriever)
                 .build();
     }
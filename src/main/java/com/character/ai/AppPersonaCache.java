@@ -0,0 +1,185 @@
+package com.character.ai;
+
+import cn.hutool.core.util.NumberUtil;
+import com.character.exception.ErrorCode;
+import com.character.exception.ThrowUtils;
+import com.character.config.ChatMemoryConfig;
+import com.character.model.entity.App;
+import com.character.service.AppService;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+
+import static com.character.constant.AppConstant.LIMIT_PROMPT;
+
+/**
+ * 应用人设缓存
+ * 按 appId 缓存应用的系统提示词，以应用的编辑时间作为版本。系统提示词只在加载时拼接一次，
+ * 应用不变时每次调用发送的前缀完全一致，便于模型服务端的提示词缓存命中。
+ * 应用被修改或删除时通过 Redis 频道广播失效，集群内各节点刷新人设并丢弃依赖它的 AI 服务实例。
+ * 广播是尽力而为的，错过时由定期比对兜底：缓存写入超过 personaRefreshAfterWrite 后，下次访问在后台重新查询应用，
+ * 编辑时间变化才替换人设并通知失效，未变化时保留原对象，前缀不变。
+ */
+@Component
+@Slf4j
+public class AppPersonaCache implements MessageListener {
+
+    private static final String INVALIDATE_CHANNEL = "app:persona:invalidate";
+
+    @Resource
+    @Lazy
+    private AppService appService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ChatMemoryConfig chatMemoryConfig;
+
+    private LoadingCache<Long, AppPersona> personaCache;
+
+    /**
+     * 人设失效时的回调，参数为 appId
+     */
+    private final List<LongConsumer> invalidationListeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void subscribe() {
+        personaCache = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterAccess(Duration.ofHours(1))
+                .refreshAfterWrite(chatMemoryConfig.getPersonaRefreshAfterWrite())
+                .removalListener((Long appId, AppPersona old, RemovalCause cause) -> {
+                    // 后台比对发现编辑时间变化，新人设已生效后再通知，重建的服务实例拿到的是新人设
+                    if (cause == RemovalCause.REPLACED && appId != null && old != null) {
+                        AppPersona current = personaCache.getIfPresent(appId);
+                        if (current != null && !Objects.equals(current.version(), old.version())) {
+                            log.info("应用人设已变化，appId: {}, 旧版本: {}, 新版本: {}", appId, old.version(),
+                                    current.version());
+                            notifyInvalidation(appId);
+                        }
+                    }
+                })
+                .build(new CacheLoader<>() {
+                    @Override
+                    public AppPersona load(Long appId) {
+                        return AppPersonaCache.this.load(appId);
+                    }
+
+                    @Override
+                    public AppPersona reload(Long appId, AppPersona old) {
+                        return refresh(appId, old);
+                    }
+                });
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 获取应用人设，未缓存时从数据库加载
+     */
+    public AppPersona get(long appId) {
+        return personaCache.get(appId);
+    }
+
+    /**
+     * 注册人设失效回调
+     */
+    public void addInvalidationListener(LongConsumer listener) {
+        invalidationListeners.add(listener);
+    }
+
+    /**
+     * 应用被修改或删除后调用：本节点立即失效，并广播给集群内其他节点
+     */
+    public void publishInvalidation(long appId) {
+        invalidateLocal(appId);
+        try {
+            stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, String.valueOf(appId));
+        } catch (Exception e) {
+            // 广播失败时其他节点的人设最多在访问过期后刷新
+            log.error("广播应用人设失效失败，appId: {}, error: {}", appId, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (!NumberUtil.isLong(body)) {
+            log.warn("忽略无法识别的应用人设失效消息: {}", body);
+            return;
+        }
+        invalidateLocal(Long.parseLong(body));
+    }
+
+    private void invalidateLocal(long appId) {
+        AppPersona old = personaCache.getIfPresent(appId);
+        personaCache.invalidate(appId);
+        notifyInvalidation(appId);
+        log.info("应用人设已失效，appId: {}, 旧版本: {}", appId, old == null ? null : old.version());
+    }
+
+    private void notifyInvalidation(long appId) {
+        for (LongConsumer listener : invalidationListeners) {
+            listener.accept(appId);
+        }
+    }
+
+    /**
+     * 后台比对应用的编辑时间：未变化时返回原人设，应用已删除时移除并通知失效
+     */
+    private AppPersona refresh(long appId, AppPersona old) {
+        App app = appService.getById(appId);
+        if (app == null) {
+            notifyInvalidation(appId);
+            return null;
+        }
+        return Objects.equals(versionOf(app), old.version()) ? old : toPersona(app);
+    }
+
+    private AppPersona load(long appId) {
+        App app = appService.getById(appId);
+        ThrowUtils.throwIf(app == null, ErrorCode.NOT_FOUND_ERROR, "应用不存在");
+        return toPersona(app);
+    }
+
+    private static AppPersona toPersona(App app) {
+        return new AppPersona(app.getAppId(), app.getAppName(), versionOf(app), LIMIT_PROMPT + app.getInitPrompt());
+    }
+
+    private static LocalDateTime versionOf(App app) {
+        return app.getEditTime() != null ? app.getEditTime() : app.getCreateTime();
+    }
+
+    /**
+     * 应用人设
+     *
+     * @param appId        应用id
+     * @param appName      应用名称，用于知识库检索过滤
+     * @param version      版本，取应用的编辑时间
+     * @param systemPrompt 拼接好的系统提示词
+     */
+    public record AppPersona(long appId, String appName, LocalDateTime version, String systemPrompt) {
+    }
+}
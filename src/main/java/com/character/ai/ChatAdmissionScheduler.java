@@ -0,0 +1,449 @@
+package com.character.ai;
+
+import com.character.config.ChatAdmissionConfig;
+import com.character.exception.BusinessException;
+import com.character.exception.ErrorCode;
+import com.character.model.enums.ChatPriorityEnum;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 大模型调用准入调度器
+ * - 全局并发上限，防止打满模型供应商配额
+ * - 按应用加权轮询（平滑加权轮询），应用内按用户轮询，避免单个应用或用户挤占所有名额
+ * - 单应用、单用户并发上限（舱壁隔离）
+ * - 语音、文字两个优先级通道：语音优先并有预留名额，文字请求随等待时间老化，不会被饿死
+ * - 排队超时或队列已满时返回“繁忙”，而不是一直挂起
+ */
+@Component
+@Slf4j
+public class ChatAdmissionScheduler {
+
+    @Resource
+    private ChatAdmissionConfig chatAdmissionConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final Object lock = new Object();
+
+    /**
+     * 各优先级的通道
+     */
+    private final Map<ChatPriorityEnum, PriorityLane> priorityLanes = new EnumMap<>(ChatPriorityEnum.class);
+
+    private final Map<Long, Integer> appActive = new HashMap<>();
+
+    private final Map<Long, Integer> userActive = new HashMap<>();
+
+    private final Map<Long, Integer> userQueued = new HashMap<>();
+
+    private int active;
+
+    private int queued;
+
+    @PostConstruct
+    public void init() {
+        for (ChatPriorityEnum priority : ChatPriorityEnum.values()) {
+            PriorityLane lane = new PriorityLane();
+            priorityLanes.put(priority, lane);
+            Gauge.builder("ai.chat.admission.lane.active", lane, l -> l.active)
+                    .description("各优先级通道正在进行的生成数")
+                    .tag("lane", priority.getValue())
+                    .register(meterRegistry);
+            Gauge.builder("ai.chat.admission.lane.queued", lane, l -> l.queued)
+                    .description("各优先级通道排队的生成数")
+                    .tag("lane", priority.getValue())
+                    .register(meterRegistry);
+        }
+        Gauge.builder("ai.chat.admission.active", this, scheduler -> scheduler.active)
+                .description("正在进行的大模型生成数")
+                .register(meterRegistry);
+        Gauge.builder("ai.chat.admission.queued", this, scheduler -> scheduler.queued)
+                .description("排队等待的大模型生成数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 在准入控制下执行生成，拿到名额后才会调用 body，流结束（完成、失败、取消）后归还名额。
+     * body 中包含数据库写入等阻塞操作，而名额可能在其他生成结束的 IO 线程上放行，因此切到 boundedElastic 执行
+     *
+     * @param appId    应用id
+     * @param userId   用户id
+     * @param priority 优先级
+     * @param body     真正的生成逻辑
+     * @return 受控的消息流，繁忙时以 TOO_MANY_REQUEST 的 BusinessException 结束
+     */
+    public <T> Flux<T> admit(Long appId, Long userId, ChatPriorityEnum priority, Supplier<Flux<T>> body) {
+        if (!chatAdmissionConfig.isEnabled()) {
+            return Flux.defer(body);
+        }
+        return Flux.usingWhen(acquire(appId, userId, priority),
+                permit -> Flux.defer(body).subscribeOn(Schedulers.boundedElastic()),
+                permit -> Mono.fromRunnable(permit::release));
+    }
+
+    private Mono<Permit> acquire(Long appId, Long userId, ChatPriorityEnum priority) {
+        return Mono.<Permit>create(sink -> {
+                    Ticket ticket = new Ticket(appId, userId, priority, sink);
+                    sink.onCancel(() -> cancel(ticket));
+                    enqueue(ticket);
+                })
+                // 拿到名额时下游恰好已取消，名额直接归还
+                .doOnDiscard(Permit.class, Permit::release);
+    }
+
+    private void enqueue(Ticket ticket) {
+        List<Ticket> granted;
+        synchronized (lock) {
+            if (queued >= chatAdmissionConfig.getMaxQueued()
+                    || userQueued.getOrDefault(ticket.userId, 0) >= chatAdmissionConfig.getMaxQueuedPerUser()) {
+                granted = null;
+            } else {
+                priorityLanes.get(ticket.priority).offer(ticket);
+                increment(userQueued, ticket.userId);
+                queued++;
+                granted = dispatchLocked();
+            }
+        }
+        if (granted == null) {
+            log.warn("大模型调用排队已满，appId: {}, userId: {}, 通道: {}", ticket.appId, ticket.userId,
+                    ticket.priority.getValue());
+            recordWait(ticket, "rejected");
+            ticket.sink.error(busy());
+            return;
+        }
+        if (ticket.state == TicketState.QUEUED) {
+            ticket.timeout = Schedulers.parallel().schedule(() -> expire(ticket),
+                    chatAdmissionConfig.getQueueTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        }
+        grant(granted);
+    }
+
+    private void release(Permit permit) {
+        List<Ticket> granted;
+        synchronized (lock) {
+            active--;
+            priorityLanes.get(permit.ticket.priority).active--;
+            decrement(appActive, permit.ticket.appId);
+            decrement(userActive, permit.ticket.userId);
+            granted = dispatchLocked();
+        }
+        grant(granted);
+    }
+
+    private void cancel(Ticket ticket) {
+        synchronized (lock) {
+            if (!removeQueuedLocked(ticket, TicketState.CANCELLED)) {
+                return;
+            }
+        }
+        recordWait(ticket, "cancelled");
+    }
+
+    private void expire(Ticket ticket) {
+        synchronized (lock) {
+            if (!removeQueuedLocked(ticket, TicketState.TIMED_OUT)) {
+                return;
+            }
+        }
+        log.warn("大模型调用排队超时，appId: {}, userId: {}, 通道: {}", ticket.appId, ticket.userId,
+                ticket.priority.getValue());
+        recordWait(ticket, "timeout");
+        ticket.sink.error(busy());
+    }
+
+    private void grant(List<Ticket> granted) {
+        for (Ticket ticket : granted) {
+            if (ticket.timeout != null) {
+                ticket.timeout.dispose();
+            }
+            recordWait(ticket, "admitted");
+            ticket.sink.success(new Permit(ticket));
+        }
+    }
+
+    /**
+     * 在有空闲名额时按公平策略放行排队请求，需持有锁调用
+     */
+    private List<Ticket> dispatchLocked() {
+        List<Ticket> granted = new ArrayList<>();
+        while (active < chatAdmissionConfig.getMaxConcurrent() && queued > 0) {
+            Ticket next = pollNextLocked();
+            if (next == null) {
+                break;
+            }
+            next.state = TicketState.GRANTED;
+            queued--;
+            decrement(userQueued, next.userId);
+            active++;
+            priorityLanes.get(next.priority).active++;
+            increment(appActive, next.appId);
+            increment(userActive, next.userId);
+            granted.add(next);
+        }
+        return granted;
+    }
+
+    /**
+     * 先按优先级和老化选出通道，选中的通道没有可放行的请求时再看另一个通道
+     */
+    private Ticket pollNextLocked() {
+        PriorityLane voice = priorityLanes.get(ChatPriorityEnum.VOICE);
+        PriorityLane text = priorityLanes.get(ChatPriorityEnum.TEXT);
+        int textSlots = Math.max(1, chatAdmissionConfig.getMaxConcurrent() - chatAdmissionConfig.getReservedVoiceSlots());
+        boolean textAllowed = active < textSlots;
+        long voiceDeadline = voice.oldestEnqueuedAt();
+        long textDeadline = text.oldestEnqueuedAt();
+        // 文字请求按入队时间加上语音领先时间参与比较
+        boolean textFirst = textAllowed && textDeadline != Long.MAX_VALUE
+                && (voiceDeadline == Long.MAX_VALUE
+                || textDeadline + chatAdmissionConfig.getVoiceHeadStart().toNanos() - voiceDeadline < 0);
+        Ticket ticket = textFirst ? text.pollNext() : voice.pollNext();
+        if (ticket == null) {
+            ticket = textFirst ? voice.pollNext() : (textAllowed ? text.pollNext() : null);
+        }
+        return ticket;
+    }
+
+    /**
+     * 平滑加权轮询选出应用通道，再在通道内按用户轮询
+     */
+    private Ticket pollAppLanesLocked(LinkedHashMap<Long, AppLane> appLanes) {
+        AppLane best = null;
+        int totalWeight = 0;
+        for (AppLane lane : appLanes.values()) {
+            if (appActive.getOrDefault(lane.appId, 0) >= chatAdmissionConfig.getMaxConcurrentPerApp()
+                    || !lane.hasEligible()) {
+                continue;
+            }
+            lane.currentWeight += lane.weight;
+            totalWeight += lane.weight;
+            if (best == null || lane.currentWeight > best.currentWeight) {
+                best = lane;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        best.currentWeight -= totalWeight;
+        Ticket ticket = best.pollEligible();
+        if (best.isEmpty()) {
+            appLanes.remove(best.appId);
+        }
+        return ticket;
+    }
+
+    private boolean removeQueuedLocked(Ticket ticket, TicketState newState) {
+        if (ticket.state != TicketState.QUEUED) {
+            return false;
+        }
+        ticket.state = newState;
+        priorityLanes.get(ticket.priority).remove(ticket);
+        queued--;
+        decrement(userQueued, ticket.userId);
+        if (ticket.timeout != null) {
+            ticket.timeout.dispose();
+        }
+        return true;
+    }
+
+    /**
+     * 等待时间直方图只按通道和结果区分，应用数量不受控，按应用只记普通计数器，避免时间序列随应用数膨胀
+     */
+    private void recordWait(Ticket ticket, String outcome) {
+        Timer.builder("ai.chat.admission.wait")
+                .description("大模型调用排队等待时间")
+                .tag("lane", ticket.priority.getValue())
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - ticket.enqueuedAt, TimeUnit.NANOSECONDS);
+        meterRegistry.counter("ai.chat.admission.requests", "app", String.valueOf(ticket.appId), "outcome", outcome)
+                .increment();
+    }
+
+    private BusinessException busy() {
+        return new BusinessException(ErrorCode.TOO_MANY_REQUEST, "当前对话人数较多，请稍后再试");
+    }
+
+    private static void increment(Map<Long, Integer> counter, Long key) {
+        counter.merge(key, 1, Integer::sum);
+    }
+
+    private static void decrement(Map<Long, Integer> counter, Long key) {
+        counter.computeIfPresent(key, (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    private enum TicketState {
+        QUEUED, GRANTED, CANCELLED, TIMED_OUT
+    }
+
+    private static final class Ticket {
+        private final Long appId;
+        private final Long userId;
+        private final ChatPriorityEnum priority;
+        private final MonoSink<Permit> sink;
+        private final long enqueuedAt = System.nanoTime();
+        private volatile TicketState state = TicketState.QUEUED;
+        private volatile Disposable timeout;
+
+        private Ticket(Long appId, Long userId, ChatPriorityEnum priority, MonoSink<Permit> sink) {
+            this.appId = appId;
+            this.userId = userId;
+            this.priority = priority;
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * 生成名额，重复归还只生效一次
+     */
+    private final class Permit {
+        private final Ticket ticket;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Permit(Ticket ticket) {
+            this.ticket = ticket;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                ChatAdmissionScheduler.this.release(this);
+            }
+        }
+    }
+
+    /**
+     * 优先级通道：通道内按应用加权轮询，同时按入队顺序记录请求，用于取最早的排队时间
+     */
+    private final class PriorityLane {
+        private final LinkedHashMap<Long, AppLane> appLanes = new LinkedHashMap<>();
+        /**
+         * 按入队顺序排列，已放行或已移除的请求延迟清理
+         */
+        private final ArrayDeque<Ticket> arrivals = new ArrayDeque<>();
+        private int active;
+        private int queued;
+
+        private void offer(Ticket ticket) {
+            appLanes.computeIfAbsent(ticket.appId, AppLane::new).offer(ticket);
+            arrivals.offer(ticket);
+            queued++;
+        }
+
+        private Ticket pollNext() {
+            Ticket ticket = pollAppLanesLocked(appLanes);
+            if (ticket != null) {
+                queued--;
+            }
+            return ticket;
+        }
+
+        private void remove(Ticket ticket) {
+            AppLane lane = appLanes.get(ticket.appId);
+            if (lane != null) {
+                lane.remove(ticket);
+                if (lane.isEmpty()) {
+                    appLanes.remove(ticket.appId);
+                }
+            }
+            queued--;
+        }
+
+        /**
+         * 最早仍在排队的请求的入队时间，没有排队请求时返回 Long.MAX_VALUE
+         */
+        private long oldestEnqueuedAt() {
+            Ticket head = arrivals.peek();
+            while (head != null && head.state != TicketState.QUEUED) {
+                arrivals.poll();
+                head = arrivals.peek();
+            }
+            return head == null ? Long.MAX_VALUE : head.enqueuedAt;
+        }
+    }
+
+    /**
+     * 应用通道：应用内按用户分队列轮询
+     */
+    private final class AppLane {
+        private final Long appId;
+        private final int weight;
+        private int currentWeight;
+        private final LinkedHashMap<Long, ArrayDeque<Ticket>> userQueues = new LinkedHashMap<>();
+
+        private AppLane(Long appId) {
+            this.appId = appId;
+            this.weight = Math.max(1, chatAdmissionConfig.getAppWeights().getOrDefault(appId, 1));
+        }
+
+        private void offer(Ticket ticket) {
+            userQueues.computeIfAbsent(ticket.userId, k -> new ArrayDeque<>()).offer(ticket);
+        }
+
+        private boolean hasEligible() {
+            for (Long userId : userQueues.keySet()) {
+                if (userActive.getOrDefault(userId, 0) < chatAdmissionConfig.getMaxConcurrentPerUser()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Ticket pollEligible() {
+            Iterator<Map.Entry<Long, ArrayDeque<Ticket>>> iterator = userQueues.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, ArrayDeque<Ticket>> entry = iterator.next();
+                if (userActive.getOrDefault(entry.getKey(), 0) >= chatAdmissionConfig.getMaxConcurrentPerUser()) {
+                    continue;
+                }
+                ArrayDeque<Ticket> queue = entry.getValue();
+                Ticket ticket = queue.poll();
+                iterator.remove();
+                // 用户还有排队请求则移到队尾，实现应用内按用户轮询
+                if (!queue.isEmpty()) {
+                    userQueues.put(entry.getKey(), queue);
+                }
+                return ticket;
+            }
+            return null;
+        }
+
+        private void remove(Ticket ticket) {
+            ArrayDeque<Ticket> queue = userQueues.get(ticket.userId);
+            if (queue != null) {
+                queue.remove(ticket);
+                if (queue.isEmpty()) {
+                    userQueues.remove(ticket.userId);
+                }
+            }
+        }
+
+        private boolean isEmpty() {
+            return userQueues.isEmpty();
+        }
+    }
+}
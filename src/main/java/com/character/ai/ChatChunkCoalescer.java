@@ -0,0 +1,133 @@
+package com.character.ai;
+
+import com.character.config.ChatSseConfig;
+import jakarta.annotation.Resource;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式 token 合并器
+ * 模型输出中文时一个 token 往往只有一两个字，逐个推送会产生大量小帧。
+ * 这里按时间窗口或字节数把 token 合并成帧：首帧立即推送以保证首字延迟，
+ * 之后窗口到期或累计达到字节上限时推送，流结束时推送剩余内容。
+ * 合并窗口为 0 时不合并，原样推送每个 token。
+ */
+@Component
+public class ChatChunkCoalescer {
+
+    @Resource
+    private ChatSseConfig chatSseConfig;
+
+    /**
+     * 合并 token 流
+     *
+     * @param tokens 模型输出的 token 流
+     * @return 合并后的帧流
+     */
+    public Flux<String> coalesce(Flux<String> tokens) {
+        Duration flushInterval = chatSseConfig.getFlushInterval();
+        int maxFrameBytes = chatSseConfig.getMaxFrameBytes();
+        // 字节上限只在有时间窗口兜底时生效，没有窗口时整体关闭合并
+        if (flushInterval.isZero() || flushInterval.isNegative()) {
+            return tokens;
+        }
+        return Flux.create(sink -> {
+            FrameBuffer frameBuffer = new FrameBuffer(sink, flushInterval.toNanos(), maxFrameBytes);
+            Disposable upstream = tokens.subscribe(frameBuffer::append, frameBuffer::error, frameBuffer::complete);
+            sink.onDispose(() -> {
+                upstream.dispose();
+                frameBuffer.cancelTimer();
+            });
+        });
+    }
+
+    /**
+     * 单个流的帧缓冲，token 线程和定时器线程都会访问，用对象锁串行化
+     */
+    private static final class FrameBuffer {
+        private final FluxSink<String> sink;
+        private final long flushIntervalNanos;
+        private final int maxFrameBytes;
+        private final StringBuilder pending = new StringBuilder(64);
+        private int pendingBytes;
+        private boolean firstFrameSent;
+        private Disposable timer;
+
+        private FrameBuffer(FluxSink<String> sink, long flushIntervalNanos, int maxFrameBytes) {
+            this.sink = sink;
+            this.flushIntervalNanos = flushIntervalNanos;
+            this.maxFrameBytes = maxFrameBytes;
+        }
+
+        private synchronized void append(String token) {
+            if (token == null || token.isEmpty()) {
+                return;
+            }
+            pending.append(token);
+            pendingBytes += utf8Length(token);
+            if (!firstFrameSent || pendingBytes >= maxFrameBytes) {
+                flush();
+            } else if (timer == null) {
+                timer = Schedulers.parallel().schedule(this::onTimer, flushIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private synchronized void onTimer() {
+            timer = null;
+            flush();
+        }
+
+        private synchronized void complete() {
+            flush();
+            sink.complete();
+        }
+
+        private synchronized void error(Throwable error) {
+            flush();
+            sink.error(error);
+        }
+
+        private synchronized void cancelTimer() {
+            if (timer != null) {
+                timer.dispose();
+                timer = null;
+            }
+        }
+
+        private void flush() {
+            cancelTimer();
+            if (pending.isEmpty()) {
+                return;
+            }
+            String frame = pending.toString();
+            pending.setLength(0);
+            pendingBytes = 0;
+            firstFrameSent = true;
+            sink.next(frame);
+        }
+
+        private static int utf8Length(String text) {
+            int bytes = 0;
+            for (int i = 0, length = text.length(); i < length; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    bytes++;
+                } else if (c < 0x800) {
+                    bytes += 2;
+                } else if (Character.isSurrogate(c)) {
+                    // 代理对共 4 字节，每个代理字符计 2 字节
+                    bytes += 2;
+                } else {
+                    bytes += 3;
+                }
+            }
+            return bytes;
+        }
+    }
+}
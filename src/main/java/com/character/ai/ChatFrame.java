@@ -0,0 +1,31 @@
+package com.character.ai;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 对话流中的一帧
+ */
+@Data
+@AllArgsConstructor
+public class ChatFrame {
+
+    /**
+     * 事件id，格式为 {turnId}-{seq}，客户端断线重连时通过 Last-Event-ID 带回
+     */
+    private String id;
+
+    /**
+     * 帧文本
+     */
+    private String text;
+
+    /**
+     * 续传缓冲已过期或已超出上限，无法续传
+     */
+    private boolean expired;
+
+    public static ChatFrame expired() {
+        return new ChatFrame(null, null, true);
+    }
+}
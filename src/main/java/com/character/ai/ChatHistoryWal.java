@@ -0,0 +1,175 @@
+package com.character.ai;
+
+import com.character.model.entity.ChatHistory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对话历史本地预写日志
+ * 消息入队前先追加到当前分段文件，分段写满后切换；分段内的消息全部写库成功后删除该分段文件。
+ * 进程异常退出后遗留的分段在下次启动时重放，写库使用 INSERT IGNORE，重复重放不会产生重复行。
+ * 追加后只刷到操作系统缓冲区，能扛住进程崩溃，不保证机器掉电。
+ */
+@Slf4j
+public class ChatHistoryWal {
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private static final String FIELD_SEPARATOR = "\t";
+
+    private final Path dir;
+
+    private final int segmentMaxEntries;
+
+    private final List<Path> recoveredSegments = new ArrayList<>();
+
+    private Segment current;
+
+    private long segmentSeq;
+
+    public ChatHistoryWal(Path dir, int segmentMaxEntries) throws IOException {
+        this.dir = dir;
+        this.segmentMaxEntries = Math.max(1, segmentMaxEntries);
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * 读取上次运行遗留的全部消息，需在第一次追加前调用
+     */
+    public List<ChatHistory> recover() throws IOException {
+        List<ChatHistory> rows = new ArrayList<>();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                recoveredSegments.add(segment);
+                for (String line : Files.readAllLines(segment, StandardCharsets.UTF_8)) {
+                    ChatHistory row = decode(line);
+                    if (row != null) {
+                        rows.add(row);
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 遗留消息重放成功后删除对应的分段
+     */
+    public void deleteRecovered() throws IOException {
+        for (Path segment : recoveredSegments) {
+            Files.deleteIfExists(segment);
+        }
+        recoveredSegments.clear();
+    }
+
+    /**
+     * 追加一条消息，返回其所在的分段，写库成功后需调用 {@link #ack(Segment)}
+     */
+    public synchronized Segment append(ChatHistory row) throws IOException {
+        if (current == null || current.entries >= segmentMaxEntries) {
+            rotate();
+        }
+        current.writer.write(encode(row));
+        current.writer.newLine();
+        current.writer.flush();
+        current.entries++;
+        current.pending.incrementAndGet();
+        return current;
+    }
+
+    /**
+     * 分段中的一条消息已写库
+     */
+    public void ack(Segment segment) {
+        if (segment.pending.decrementAndGet() == 0 && segment.sealed) {
+            segment.delete();
+        }
+    }
+
+    /**
+     * 停机时关闭当前分段，消息已全部写库时一并删除
+     */
+    public synchronized void close() throws IOException {
+        if (current != null) {
+            seal(current);
+            current = null;
+        }
+    }
+
+    private void rotate() throws IOException {
+        if (current != null) {
+            seal(current);
+        }
+        Path path = dir.resolve(System.currentTimeMillis() + "-" + (segmentSeq++) + SEGMENT_SUFFIX);
+        current = new Segment(path, Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    }
+
+    private void seal(Segment segment) throws IOException {
+        segment.writer.close();
+        segment.sealed = true;
+        if (segment.pending.get() == 0) {
+            segment.delete();
+        }
+    }
+
+    private static String encode(ChatHistory row) {
+        return row.getId() + FIELD_SEPARATOR + row.getAppId() + FIELD_SEPARATOR + row.getUserId()
+                + FIELD_SEPARATOR + row.getMessageType() + FIELD_SEPARATOR + row.getCreateTime()
+                + FIELD_SEPARATOR + Base64.getEncoder().encodeToString(row.getMessage().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ChatHistory decode(String line) {
+        String[] fields = line.split(FIELD_SEPARATOR);
+        try {
+            return ChatHistory.builder()
+                    .id(Long.parseLong(fields[0]))
+                    .appId(Long.parseLong(fields[1]))
+                    .userId(Long.parseLong(fields[2]))
+                    .messageType(fields[3])
+                    .createTime(LocalDateTime.parse(fields[4]))
+                    .message(new String(Base64.getDecoder().decode(fields[5]), StandardCharsets.UTF_8))
+                    .build();
+        } catch (RuntimeException e) {
+            // 崩溃时写了一半的行
+            log.warn("忽略不完整的对话历史日志行: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 日志分段
+     */
+    public static final class Segment {
+        private final Path path;
+        private final BufferedWriter writer;
+        private final AtomicInteger pending = new AtomicInteger();
+        private int entries;
+        private volatile boolean sealed;
+
+        private Segment(Path path, BufferedWriter writer) {
+            this.path = path;
+            this.writer = writer;
+        }
+
+        private void delete() {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("删除对话历史日志分段失败: {}, error: {}", path, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.character.ai;
+
+import com.character.config.ChatHistoryWriterConfig;
+import com.character.mapper.ChatHistoryMapper;
+import com.character.model.entity.ChatHistory;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话历史延迟批量写入
+ * 每轮对话的用户消息和 AI 回复不再各自单行写库，而是放进有界队列，由单独的刷写线程跨会话攒批，
+ * 攒满一批或到达等待时间后用一条多行 INSERT 写入。调用方只入队，不会阻塞。
+ * - 尚未写库的消息保存在本节点的待写索引中，本节点的历史查询会合并这部分消息，写入后立即可见
+ * - 停机时在超时时间内写完队列；开启本地预写日志后，进程异常退出或写库最终失败的消息会在下次启动时重放
+ * 指标：
+ * - ai.chat.history.queue.depth：等待写入的消息数
+ * - ai.chat.history.insert：单批写库耗时
+ * - ai.chat.history.batch.size：每批条数
+ * - ai.chat.history.write：写入结果计数（按条），按 result（success、retry、failed、rejected）区分
+ */
+@Component
+@Slf4j
+public class ChatHistoryWriter {
+
+    @Resource
+    private ChatHistoryWriterConfig chatHistoryWriterConfig;
+
+    @Resource
+    private ChatHistoryMapper chatHistoryMapper;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private ArrayBlockingQueue<PendingRow> queue;
+
+    /**
+     * 已入队尚未写库的消息，按会话索引
+     */
+    private final Map<ConversationKey, Queue<ChatHistory>> pendingRows = new ConcurrentHashMap<>();
+
+    private ChatHistoryWal wal;
+
+    private Thread flusher;
+
+    private volatile boolean running = true;
+
+    private Timer insertTimer;
+
+    private DistributionSummary batchSizeSummary;
+
+    @PostConstruct
+    public void init() throws IOException {
+        queue = new ArrayBlockingQueue<>(chatHistoryWriterConfig.getQueueCapacity());
+        Gauge.builder("ai.chat.history.queue.depth", queue, Queue::size)
+                .description("等待写入的对话历史条数")
+                .register(meterRegistry);
+        insertTimer = Timer.builder("ai.chat.history.insert")
+                .description("对话历史单批写库耗时")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        batchSizeSummary = DistributionSummary.builder("ai.chat.history.batch.size")
+                .description("对话历史每批写入条数")
+                .register(meterRegistry);
+        if (chatHistoryWriterConfig.isWalEnabled()) {
+            wal = new ChatHistoryWal(Path.of(chatHistoryWriterConfig.getWalDir()),
+                    chatHistoryWriterConfig.getWalSegmentMaxEntries());
+            replay();
+        }
+        flusher = new Thread(this::runFlusher, "chat-history-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * 提交一条对话消息，立即返回，不会阻塞调用线程
+     *
+     * @param row 已分配 id 和创建时间的消息
+     * @return 是否入队成功，队列满时返回 false
+     */
+    public boolean submit(ChatHistory row) {
+        ConversationKey key = new ConversationKey(row.getAppId(), row.getUserId());
+        pendingRows.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(row);
+        ChatHistoryWal.Segment segment = null;
+        if (wal != null) {
+            try {
+                segment = wal.append(row);
+            } catch (IOException e) {
+                log.error("写入对话历史本地日志失败，id: {}, error: {}", row.getId(), e.getMessage());
+            }
+        }
+        if (!running || !queue.offer(new PendingRow(row, segment))) {
+            removePending(row);
+            count("rejected", 1);
+            // 已写入本地日志的消息不确认，下次启动时重放
+            log.error("对话历史写入队列已满，丢弃消息，appId: {}, userId: {}, 已写本地日志: {}",
+                    row.getAppId(), row.getUserId(), segment != null);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 本节点已入队尚未写库的消息
+     */
+    public List<ChatHistory> pendingRows(Long appId, Long userId) {
+        Queue<ChatHistory> rows = pendingRows.get(new ConversationKey(appId, userId));
+        return rows == null ? List.of() : List.copyOf(rows);
+    }
+
+    /**
+     * 本节点是否有该会话尚未写库的消息
+     */
+    public boolean hasPendingRows(Long appId, Long userId) {
+        Queue<ChatHistory> rows = pendingRows.get(new ConversationKey(appId, userId));
+        return rows != null && !rows.isEmpty();
+    }
+
+    private void runFlusher() {
+        int batchSize = Math.max(1, chatHistoryWriterConfig.getBatchSize());
+        long flushIntervalNanos = chatHistoryWriterConfig.getFlushInterval().toNanos();
+        List<PendingRow> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingRow first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // 攒满一批或到达等待时间
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize && running) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingRow next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+                flush(batch);
+            } catch (InterruptedException e) {
+                // 被中断时写完手上的一批后继续排空队列
+                running = false;
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (Exception e) {
+                log.error("对话历史刷写异常，error: {}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingRow> batch) {
+        List<ChatHistory> rows = new ArrayList<>(batch.size());
+        for (PendingRow pendingRow : batch) {
+            rows.add(pendingRow.row());
+        }
+        batchSizeSummary.record(rows.size());
+        boolean inserted = insertWithRetry(rows);
+        for (PendingRow pendingRow : batch) {
+            removePending(pendingRow.row());
+            // 写库最终失败的消息不确认，保留在本地日志中等待重放
+            if (inserted && pendingRow.segment() != null) {
+                wal.ack(pendingRow.segment());
+            }
+        }
+    }
+
+    private boolean insertWithRetry(List<ChatHistory> rows) {
+        int maxRetries = chatHistoryWriterConfig.getMaxRetries();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                insertTimer.record(() -> chatHistoryMapper.insertBatch(rows));
+                count("success", rows.size());
+                return true;
+            } catch (Exception e) {
+                if (attempt >= maxRetries) {
+                    count("failed", rows.size());
+                    log.error("对话历史批量写入失败，已重试 {} 次，条数: {}, error: {}", attempt, rows.size(), e.getMessage(), e);
+                    return false;
+                }
+                count("retry", rows.size());
+                log.warn("对话历史批量写入失败，准备重试，条数: {}, error: {}", rows.size(), e.getMessage());
+                try {
+                    Thread.sleep(chatHistoryWriterConfig.getRetryBackoff().toMillis() * (attempt + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * 重放上次运行遗留在本地日志中的消息
+     */
+    private void replay() throws IOException {
+        List<ChatHistory> rows = wal.recover();
+        if (rows.isEmpty()) {
+            wal.deleteRecovered();
+            return;
+        }
+        log.info("重放对话历史本地日志，条数: {}", rows.size());
+        int batchSize = Math.max(1, chatHistoryWriterConfig.getBatchSize());
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            if (!insertWithRetry(rows.subList(from, Math.min(rows.size(), from + batchSize)))) {
+                log.error("对话历史本地日志重放失败，保留日志等待下次启动");
+                return;
+            }
+        }
+        wal.deleteRecovered();
+    }
+
+    private void removePending(ChatHistory row) {
+        pendingRows.computeIfPresent(new ConversationKey(row.getAppId(), row.getUserId()), (key, rows) -> {
+            rows.remove(row);
+            return rows.isEmpty() ? null : rows;
+        });
+    }
+
+    private void count(String result, int rows) {
+        meterRegistry.counter("ai.chat.history.write", "result", result).increment(rows);
+    }
+
+    /**
+     * 停机时在超时时间内写完队列中的消息
+     */
+    @PreDestroy
+    public void destroy() throws InterruptedException, IOException {
+        running = false;
+        flusher.join(chatHistoryWriterConfig.getShutdownTimeout().toMillis());
+        if (flusher.isAlive()) {
+            log.error("停机时仍有 {} 条对话历史未写入", queue.size());
+            flusher.interrupt();
+        }
+        if (wal != null) {
+            wal.close();
+        }
+    }
+
+    private record ConversationKey(Long appId, Long userId) {
+    }
+
+    private record PendingRow(ChatHistory row, ChatHistoryWal.Segment segment) {
+    }
+}
@@ -0,0 +1,162 @@
+package com.character.ai;
+
+import com.character.ai.model.TurnUsage;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.Resource;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 对话链路各阶段的耗时指标，通过 /actuator/prometheus 暴露
+ * - ai.chat.stage：准备、创建 AI 服务、RAG 检索、发起模型调用等阶段耗时，按 stage 区分；
+ *   准备阶段（prepare）内并行的应用查询、记忆加载、首轮判断、提问向量化、用户消息写入各自单独记录，
+ *   prepare 本身记录的是等待生成依赖就绪的墙钟时间
+ * - ai.chat.ttft：从拿到生成名额到首个 token 的耗时
+ * - ai.chat.inter.token：相邻 token 的间隔
+ * - ai.chat.tokens.per.second：单轮回复的输出速度
+ * - ai.chat.generation：单轮回复总耗时，按结果区分
+ * - ai.chat.turns：对话轮数计数，按 app 和结果区分
+ * - ai.chat.history.rejected：对话历史写入队列已满而没有写入的消息数，按消息类型区分，大于 0 时应告警
+ * 回复相关指标带 model（实际应答的端点）标签，便于对比不同供应商。
+ * 带百分位直方图的指标不加 app 标签：每个 app 都会多出一整组分桶，角色数量上来后时间序列数失控，
+ * 按 app 的统计只放在普通计数器上。
+ */
+@Component
+public class ChatMetrics {
+
+    /**
+     * 合并生成的跟随者没有自己的模型调用
+     */
+    private static final String MODEL_COALESCED = "coalesced";
+
+    private static final String MODEL_UNKNOWN = "unknown";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 记录一个阶段的耗时
+     */
+    public <T> T recordStage(String stage, Supplier<T> action) {
+        return stageTimer(stage).record(action);
+    }
+
+    /**
+     * 包装内容检索器，记录 RAG 检索耗时
+     */
+    public ContentRetriever timedRetriever(ContentRetriever retriever) {
+        Timer timer = stageTimer("rag_retrieve");
+        return query -> timer.record(() -> retriever.retrieve(query));
+    }
+
+    /**
+     * 记录一条因写入队列已满而没有写入的对话历史
+     *
+     * @param messageType 消息类型（user / ai）
+     */
+    public void recordHistoryRejected(String messageType) {
+        meterRegistry.counter("ai.chat.history.rejected", "type", messageType).increment();
+    }
+
+    /**
+     * 统计回复流的首 token 延迟、token 间隔、输出速度和总耗时
+     *
+     * @param appId      应用id
+     * @param startNanos 计时起点（拿到生成名额、开始处理本轮对话的时刻）
+     * @param turnUsage  本轮的用量记录，用于取实际应答的端点
+     * @param reply      回复流
+     */
+    public Flux<String> instrumentReply(long appId, long startNanos, TurnUsage turnUsage, Flux<String> reply) {
+        return Flux.defer(() -> {
+            ReplyTiming timing = new ReplyTiming();
+            return reply
+                    .doOnNext(chunk -> timing.onChunk(startNanos, turnUsage))
+                    .doFinally(signal -> timing.onFinally(appId, startNanos, turnUsage, signal));
+        });
+    }
+
+    private Timer stageTimer(String stage) {
+        return Timer.builder("ai.chat.stage")
+                .description("对话链路各阶段耗时")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private String modelTag(TurnUsage turnUsage) {
+        if (!turnUsage.isStarted()) {
+            return MODEL_COALESCED;
+        }
+        String endpoint = turnUsage.getEndpoint();
+        return endpoint == null ? MODEL_UNKNOWN : endpoint;
+    }
+
+    /**
+     * 单轮回复的计时状态，回复流的信号是串行的，不需要加锁
+     */
+    private final class ReplyTiming {
+        private long firstNanos;
+        private long lastNanos;
+        private long chunks;
+        private Timer interTokenTimer;
+
+        private void onChunk(long startNanos, TurnUsage turnUsage) {
+            long now = System.nanoTime();
+            if (chunks++ == 0) {
+                firstNanos = now;
+                String model = modelTag(turnUsage);
+                Timer.builder("ai.chat.ttft")
+                        .description("首 token 延迟")
+                        .tags("model", model)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofMillis(50))
+                        .maximumExpectedValue(Duration.ofSeconds(30))
+                        .register(meterRegistry)
+                        .record(now - startNanos, TimeUnit.NANOSECONDS);
+                interTokenTimer = Timer.builder("ai.chat.inter.token")
+                        .description("相邻 token 间隔")
+                        .tags("model", model)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofMillis(1))
+                        .maximumExpectedValue(Duration.ofSeconds(5))
+                        .register(meterRegistry);
+            } else {
+                interTokenTimer.record(now - lastNanos, TimeUnit.NANOSECONDS);
+            }
+            lastNanos = now;
+        }
+
+        private void onFinally(long appId, long startNanos, TurnUsage turnUsage, SignalType signal) {
+            String model = modelTag(turnUsage);
+            String outcome = switch (signal) {
+                case ON_COMPLETE -> "complete";
+                case ON_ERROR -> "error";
+                default -> "cancel";
+            };
+            Timer.builder("ai.chat.generation")
+                    .description("单轮回复总耗时")
+                    .tags("model", model, "outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            meterRegistry.counter("ai.chat.turns", "app", String.valueOf(appId), "outcome", outcome).increment();
+            if (chunks > 1 && lastNanos > firstNanos) {
+                double seconds = (lastNanos - firstNanos) / 1e9;
+                DistributionSummary.builder("ai.chat.tokens.per.second")
+                        .description("单轮回复输出速度（按流式分片计）")
+                        .tags("model", model)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record((chunks - 1) / seconds);
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.character.ai;
+
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.NumberUtil;
+import com.character.config.ChatResumeConfig;
+import com.character.exception.BusinessException;
+import com.character.exception.ErrorCode;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.Queues;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 对话流续传缓冲
+ * 每轮对话的帧带上递增序号，同时写入一个短期存活的 Redis Stream。
+ * 生成与客户端连接解耦：客户端断开后生成继续进行并写入缓冲，
+ * 客户端带着 Last-Event-ID 重连时从缓冲中续传，而不是重新生成一遍。
+ * 客户端断开后在 abandonGrace 内没有续传请求（续传时在 Redis 中留下标记，任意节点续传都算），
+ * 视为放弃本轮对话，中断生成并释放生成名额，不再为无人接收的回复消耗 token。
+ */
+@Component
+@Slf4j
+public class ChatReplayBuffer {
+
+    private static final String KEY_PREFIX = "chat:turn:";
+
+    private static final String FIELD_SEQ = "s";
+
+    private static final String FIELD_TEXT = "d";
+
+    private static final String FIELD_END = "e";
+
+    private static final String END_DONE = "done";
+
+    private static final String END_ERROR = "error";
+
+    private static final String END_OVERFLOW = "overflow";
+
+    /**
+     * 客户端放弃、生成被中断
+     */
+    private static final String END_ABANDONED = "abandoned";
+
+    /**
+     * 续传标记的 key 后缀
+     */
+    private static final String RESUMED_SUFFIX = ":resumed";
+
+    /**
+     * 长回复每写入多少帧续期一次
+     */
+    private static final int EXPIRE_REFRESH_FRAMES = 64;
+
+    @Resource
+    private ChatResumeConfig chatResumeConfig;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 发布一轮对话：立即订阅生成流并写入缓冲，返回给当前客户端的帧流
+     *
+     * @param userId 用户id
+     * @param frames 合并后的帧流
+     * @return 带事件id的帧流，客户端取消订阅后等待续传，超过 abandonGrace 没有续传才中断生成
+     */
+    public Flux<ChatFrame> publish(Long userId, Flux<String> frames) {
+        if (!chatResumeConfig.isEnabled()) {
+            return frames.map(text -> new ChatFrame(null, text, false));
+        }
+        String turnId = IdUtil.getSnowflakeNextIdStr();
+        String key = buildKey(userId, turnId);
+        TurnWriter writer = new TurnWriter(key);
+        Sinks.Many<ChatFrame> live = Sinks.many().unicast()
+                .onBackpressureBuffer(Queues.<ChatFrame>get(chatResumeConfig.getLiveBufferFrames()).get());
+        LiveTurn turn = new LiveTurn(key, writer);
+        // Redis 写入放到 boundedElastic，避免阻塞模型客户端的 IO 线程
+        turn.upstream = frames.publishOn(Schedulers.boundedElastic())
+                .subscribe(text -> {
+                            long seq = writer.nextSeq();
+                            if (live.tryEmitNext(new ChatFrame(turnId + "-" + seq, text, false))
+                                    == Sinks.EmitResult.FAIL_OVERFLOW) {
+                                // 当前连接接收过慢，断开后由客户端续传，生成继续写入缓冲
+                                live.tryEmitError(new BusinessException(ErrorCode.SYSTEM_ERROR, "客户端接收过慢，请重新连接"));
+                                turn.detach();
+                            }
+                            writer.append(seq, text);
+                        },
+                        error -> {
+                            writer.end(END_ERROR);
+                            live.tryEmitError(error);
+                        },
+                        () -> {
+                            writer.end(END_DONE);
+                            live.tryEmitComplete();
+                        });
+        return live.asFlux().doOnCancel(turn::detach);
+    }
+
+    /**
+     * 从缓冲中续传
+     *
+     * @param userId      用户id
+     * @param lastEventId 客户端最后收到的事件id
+     * @return 续传的帧流；事件id不合法或未开启续传时返回 null
+     */
+    public Flux<ChatFrame> resume(Long userId, String lastEventId) {
+        if (!chatResumeConfig.isEnabled()) {
+            return null;
+        }
+        int separator = lastEventId.lastIndexOf('-');
+        if (separator <= 0 || !NumberUtil.isLong(lastEventId.substring(separator + 1))) {
+            return null;
+        }
+        String turnId = lastEventId.substring(0, separator);
+        long lastSeq = Long.parseLong(lastEventId.substring(separator + 1));
+        log.info("对话流续传，userId: {}, turnId: {}, lastSeq: {}", userId, turnId, lastSeq);
+        ResumeCursor cursor = new ResumeCursor(buildKey(userId, turnId), turnId, lastSeq);
+        return Mono.fromRunnable(cursor::markResumed)
+                .subscribeOn(Schedulers.boundedElastic())
+                .thenMany(Flux.interval(Duration.ZERO, chatResumeConfig.getPollInterval(), Schedulers.boundedElastic()))
+                .onBackpressureDrop()
+                .takeWhile(tick -> !cursor.finished)
+                .concatMapIterable(tick -> cursor.poll());
+    }
+
+    private String buildKey(Long userId, String turnId) {
+        return KEY_PREFIX + userId + ":" + turnId;
+    }
+
+    private StreamOperations<String, String, String> streamOps() {
+        return stringRedisTemplate.opsForStream();
+    }
+
+    /**
+     * 正在生成的一轮对话，当前连接断开后负责在等待期满时中断生成
+     */
+    private final class LiveTurn {
+        private final String key;
+        private final TurnWriter writer;
+        private final AtomicBoolean detached = new AtomicBoolean(false);
+        private volatile Disposable upstream;
+
+        private LiveTurn(String key, TurnWriter writer) {
+            this.key = key;
+            this.writer = writer;
+        }
+
+        /**
+         * 当前连接断开，等待期满仍没有续传时中断生成
+         */
+        private void detach() {
+            if (!detached.compareAndSet(false, true)) {
+                return;
+            }
+            // 检查续传标记要访问 Redis，放到 boundedElastic 上执行
+            Schedulers.boundedElastic().schedule(this::abandonIfIdle,
+                    chatResumeConfig.getAbandonGrace().toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        private void abandonIfIdle() {
+            Disposable current = upstream;
+            if (current == null || current.isDisposed() || resumed()) {
+                return;
+            }
+            log.info("客户端断开后无续传，中断生成，key: {}", key);
+            current.dispose();
+            writer.end(END_ABANDONED);
+        }
+
+        private boolean resumed() {
+            try {
+                return Boolean.TRUE.equals(stringRedisTemplate.hasKey(key + RESUMED_SUFFIX));
+            } catch (Exception e) {
+                // 无法确认时按已续传处理，宁可多生成也不误断
+                log.warn("读取对话续传标记失败，key: {}, error: {}", key, e.getMessage());
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 单轮对话的缓冲写入，正常在 publishOn 的单线程上调用；中断生成时由等待任务写入结束标记，因此加锁
+     */
+    private final class TurnWriter {
+        private final String key;
+        private long seq;
+        private int chars;
+        private boolean started;
+        private boolean stopped;
+
+        private TurnWriter(String key) {
+            this.key = key;
+        }
+
+        private long nextSeq() {
+            return ++seq;
+        }
+
+        private synchronized void append(long seq, String text) {
+            if (stopped) {
+                return;
+            }
+            if (seq > chatResumeConfig.getMaxFrames() || chars + text.length() > chatResumeConfig.getMaxChars()) {
+                // 超出缓冲上限后不再写入，续传到这里会收到过期事件
+                write(Map.of(FIELD_END, END_OVERFLOW));
+                stopped = true;
+                return;
+            }
+            chars += text.length();
+            write(Map.of(FIELD_SEQ, String.valueOf(seq), FIELD_TEXT, text));
+            if (!started || seq % EXPIRE_REFRESH_FRAMES == 0) {
+                started = true;
+                refreshExpire();
+            }
+        }
+
+        private synchronized void end(String reason) {
+            if (!started || stopped) {
+                return;
+            }
+            write(Map.of(FIELD_END, reason));
+            refreshExpire();
+        }
+
+        private void write(Map<String, String> fields) {
+            try {
+                streamOps().add(key, fields);
+            } catch (Exception e) {
+                log.warn("写入对话续传缓冲失败，key: {}, error: {}", key, e.getMessage());
+                stopped = true;
+            }
+        }
+
+        private void refreshExpire() {
+            try {
+                stringRedisTemplate.expire(key, chatResumeConfig.getTtl());
+            } catch (Exception e) {
+                log.warn("设置对话续传缓冲过期时间失败，key: {}, error: {}", key, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 续传游标，记录已读到的 Stream 记录id
+     */
+    private final class ResumeCursor {
+        private final String key;
+        private final String turnId;
+        private final long lastSeq;
+        private String lastRecordId = "0-0";
+        private volatile boolean finished;
+
+        private ResumeCursor(String key, String turnId, long lastSeq) {
+            this.key = key;
+            this.turnId = turnId;
+            this.lastSeq = lastSeq;
+        }
+
+        /**
+         * 留下续传标记，生成节点据此判断客户端没有放弃本轮对话
+         */
+        private void markResumed() {
+            try {
+                stringRedisTemplate.opsForValue().set(key + RESUMED_SUFFIX, "1", chatResumeConfig.getTtl());
+            } catch (Exception e) {
+                log.warn("写入对话续传标记失败，key: {}, error: {}", key, e.getMessage());
+            }
+        }
+
+        private List<ChatFrame> poll() {
+            List<MapRecord<String, String, String>> records = streamOps()
+                    .read(StreamOffset.create(key, ReadOffset.from(lastRecordId)));
+            if (records == null || records.isEmpty()) {
+                // 缓冲不存在说明已过期（或生成节点异常退出），无法续传
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                    finished = true;
+                    return List.of(ChatFrame.expired());
+                }
+                return List.of();
+            }
+            List<ChatFrame> frames = new ArrayList<>(records.size());
+            for (MapRecord<String, String, String> record : records) {
+                lastRecordId = record.getId().getValue();
+                Map<String, String> fields = record.getValue();
+                String end = fields.get(FIELD_END);
+                if (end != null) {
+                    finished = true;
+                    if (END_OVERFLOW.equals(end) || END_ABANDONED.equals(end)) {
+                        frames.add(ChatFrame.expired());
+                    }
+                    break;
+                }
+                long seq = Long.parseLong(fields.get(FIELD_SEQ));
+                if (seq > lastSeq) {
+                    frames.add(new ChatFrame(turnId + "-" + seq, fields.get(FIELD_TEXT), false));
+                }
+            }
+            return frames;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.character.ai;
+
+import com.character.config.ChatBudgetConfig;
+import dev.langchain4j.community.store.memory.chat.redis.RedisChatMemoryStore;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单轮回复长度预算
+ * 提示词里的字数限制模型不一定遵守，这里在服务端按字符数和 token 数兜底：
+ * 超出预算后继续放行到下一个句子结束符（最多再放行一小段），然后结束流并取消上游，
+ * 上游取消会取消模型的 HTTP 请求，不再继续生成和计费，语音应用的合成时长也随之受限。
+ * 指标 ai.chat.reply.truncated 按截断原因（chars / tokens）计数。
+ */
+@Component
+@Slf4j
+public class ChatReplyBudget {
+
+    private static final String SENTENCE_TERMINATORS = "。！？!?；;…\n.~～";
+
+    @Resource
+    private ChatBudgetConfig chatBudgetConfig;
+
+    @Resource
+    private RedisChatMemoryStore redisChatMemoryStore;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 对模型输出施加长度预算
+     *
+     * @param appId    应用id
+     * @param memoryId 对话记忆id，截断后需要手动补写本轮回复
+     * @param tokens   模型输出流，取消订阅时应中断上游
+     * @return 受预算限制的输出流
+     */
+    public Flux<String> limit(long appId, String memoryId, Flux<String> tokens) {
+        if (!chatBudgetConfig.isEnabled()) {
+            return tokens;
+        }
+        int maxChars = chatBudgetConfig.getAppMaxChars().getOrDefault(appId, chatBudgetConfig.getMaxChars());
+        int maxTokens = chatBudgetConfig.getAppMaxTokens().getOrDefault(appId, chatBudgetConfig.getMaxTokens());
+        return Flux.defer(() -> {
+            ReplyBudget budget = new ReplyBudget(maxChars, maxTokens, chatBudgetConfig.getSentenceGraceChars());
+            return tokens.<String>handle((chunk, sink) -> {
+                        String accepted = budget.accept(chunk);
+                        if (!accepted.isEmpty()) {
+                            sink.next(accepted);
+                        }
+                        if (budget.truncated) {
+                            // 结束下游的同时取消上游
+                            sink.complete();
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        if (budget.truncated) {
+                            onTruncated(appId, memoryId, budget);
+                        }
+                    });
+        });
+    }
+
+    private void onTruncated(long appId, String memoryId, ReplyBudget budget) {
+        log.info("AI回复超出长度预算已截断，appId: {}, memoryId: {}, 原因: {}, 字符数: {}, token数: {}",
+                appId, memoryId, budget.reason, budget.reply.length(), budget.tokens);
+        meterRegistry.counter("ai.chat.reply.truncated", "reason", budget.reason).increment();
+        // 上游被中断后 AiServices 不会把回复写入记忆，这里补写截断后的回复，保证下一轮上下文完整
+        // 回调运行在模型客户端的 IO 线程上，Redis 读写放到 boundedElastic
+        String reply = budget.reply.toString();
+        Schedulers.boundedElastic().schedule(() -> {
+            try {
+                List<ChatMessage> messages = new ArrayList<>(redisChatMemoryStore.getMessages(memoryId));
+                messages.add(AiMessage.from(reply));
+                redisChatMemoryStore.updateMessages(memoryId, messages);
+            } catch (Exception e) {
+                log.error("写入截断回复到对话记忆失败，memoryId: {}, error: {}", memoryId, e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * 单轮回复的预算状态，只在上游的发射线程上访问
+     */
+    private static final class ReplyBudget {
+        private final int maxChars;
+        private final int maxTokens;
+        private final int graceChars;
+        private final StringBuilder reply = new StringBuilder();
+        private int tokens;
+        private boolean overBudget;
+        private int hardLimit;
+        private String reason;
+        private boolean truncated;
+
+        private ReplyBudget(int maxChars, int maxTokens, int graceChars) {
+            this.maxChars = maxChars;
+            this.maxTokens = maxTokens;
+            this.graceChars = graceChars;
+        }
+
+        /**
+         * 接收一个分片，返回可以放行的部分
+         */
+        private String accept(String chunk) {
+            if (chunk == null || chunk.isEmpty()) {
+                return "";
+            }
+            tokens++;
+            int chars = reply.length();
+            if (!overBudget) {
+                if (chars + chunk.length() <= maxChars && tokens <= maxTokens) {
+                    reply.append(chunk);
+                    return chunk;
+                }
+                overBudget = true;
+                if (tokens > maxTokens) {
+                    reason = "tokens";
+                    hardLimit = chars + graceChars;
+                } else {
+                    reason = "chars";
+                    hardLimit = maxChars + graceChars;
+                }
+            }
+            // 超出预算后停在第一个句子结束符之后，找不到时在硬上限处截断
+            int end = Math.max(0, Math.min(chunk.length(), hardLimit - chars));
+            for (int i = 0; i < end; i++) {
+                if (SENTENCE_TERMINATORS.indexOf(chunk.charAt(i)) >= 0) {
+                    end = i + 1;
+                    truncated = true;
+                    break;
+                }
+            }
+            if (end < chunk.length()) {
+                truncated = true;
+                if (end > 0 && Character.isHighSurrogate(chunk.charAt(end - 1))) {
+                    end--;
+                }
+            }
+            String accepted = chunk.substring(0, end);
+            reply.append(accepted);
+            return accepted;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.character.ai;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.util.StrUtil;
+import com.character.config.ChatCoalesceConfig;
+import dev.langchain4j.community.store.memory.chat.redis.RedisChatMemoryStore;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * 首轮对话合并器
+ * 同一应用下，无上下文的相同提问（如爆款角色的第一句“你好”）在生成期间共享同一个上游流，
+ * 结果扇出给所有订阅者；单个订阅者取消不影响其他人，全部取消后上游才会被取消。
+ * 共享流只会生成一次：上游结束后、从进行中移除前才订阅到的请求不会用 leader 的生成逻辑和记忆id重新生成，
+ * 而是重新走一遍合并，由自己的生成逻辑发起新一轮或加入更新的共享流。
+ */
+@Component
+@Slf4j
+public class ChatStreamCoalescer {
+
+    @Resource
+    private ChatCoalesceConfig chatCoalesceConfig;
+
+    @Resource
+    private RedisChatMemoryStore redisChatMemoryStore;
+
+    /**
+     * 进行中的生成，键为 appId + 归一化消息
+     */
+    private final ConcurrentHashMap<String, Flux<String>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 该消息是否可以参与合并（调用方还需保证对话无上下文）
+     */
+    public boolean isCoalescible(String message) {
+        if (!chatCoalesceConfig.isEnabled()) {
+            return false;
+        }
+        String normalized = normalize(message);
+        return StrUtil.isNotEmpty(normalized) && normalized.length() <= chatCoalesceConfig.getMaxMessageLength();
+    }
+
+    /**
+     * 合并相同的首轮生成
+     *
+     * @param appId     应用id
+     * @param message   用户消息
+     * @param memoryId  当前用户的对话记忆id
+     * @param generator 真正发起生成的逻辑，只有首个请求（leader）会调用
+     * @return 共享的消息流
+     */
+    public Flux<String> coalesce(long appId, String message, String memoryId, Supplier<Flux<String>> generator) {
+        String key = appId + ":" + normalize(message);
+        boolean[] leader = {false};
+        Flux<String> shared = inFlight.computeIfAbsent(key, k -> {
+            leader[0] = true;
+            return createSharedFlux(k, generator);
+        });
+        Flux<String> stream;
+        if (leader[0]) {
+            stream = shared;
+        } else {
+            log.debug("合并首轮生成，appId: {}, memoryId: {}", appId, memoryId);
+            // 跟随者没有经过自己的 AiChatService，需要手动把本轮对话写入记忆；
+            // 写入 Redis 放到 boundedElastic，不阻塞发出最后一个 token 的线程，写完后再结束本轮
+            StringBuilder replyBuilder = new StringBuilder();
+            stream = shared
+                    .doOnNext(replyBuilder::append)
+                    .concatWith(Mono.<String>fromRunnable(() -> saveFollowerMemory(memoryId, message, replyBuilder.toString()))
+                            .subscribeOn(Schedulers.boundedElastic()));
+        }
+        // 共享流已结束才订阅到（leader 也可能晚于全部取消的跟随者订阅），重新合并
+        return stream.onErrorResume(StaleSharedStreamException.class,
+                error -> coalesce(appId, message, memoryId, generator));
+    }
+
+    private Flux<String> createSharedFlux(String key, Supplier<Flux<String>> generator) {
+        AtomicReference<Flux<String>> holder = new AtomicReference<>();
+        AtomicBoolean started = new AtomicBoolean(false);
+        holder.set(Flux.defer(() -> started.compareAndSet(false, true) ? generator.get()
+                        // refCount 归零后的再次订阅会重新连接上游，不能再用同一个生成逻辑生成一遍
+                        : Flux.<String>error(StaleSharedStreamException.INSTANCE))
+                // 上游结束（完成、失败或全部订阅者取消）后立即移除，后续请求重新生成
+                .doFinally(signal -> inFlight.remove(key, holder.get()))
+                .replay()
+                .refCount(1));
+        return holder.get();
+    }
+
+    private void saveFollowerMemory(String memoryId, String message, String reply) {
+        if (StrUtil.isBlank(reply)) {
+            return;
+        }
+        try {
+            redisChatMemoryStore.updateMessages(memoryId, List.of(UserMessage.from(message), AiMessage.from(reply)));
+        } catch (Exception e) {
+            log.error("写入合并对话记忆失败，memoryId: {}, error: {}", memoryId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 共享流已经结束，订阅者需要重新合并
+     */
+    private static final class StaleSharedStreamException extends RuntimeException {
+        private static final StaleSharedStreamException INSTANCE = new StaleSharedStreamException();
+
+        private StaleSharedStreamException() {
+            super("共享的首轮生成已结束", null, false, false);
+        }
+    }
+
+    /**
+     * 归一化消息：全角转半角、小写、合并空白、去掉结尾标点
+     */
+    private String normalize(String message) {
+        if (message == null) {
+            return "";
+        }
+        String normalized = Convert.toDBC(message).toLowerCase().replaceAll("\\s+", " ").trim();
+        return normalized.replaceAll("[\\p{Punct}。，！？、～…]+$", "");
+    }
+}
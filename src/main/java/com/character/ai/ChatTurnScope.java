@@ -0,0 +1,129 @@
+package com.character.ai;
+
+import com.character.exception.BusinessException;
+import com.character.exception.ErrorCode;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * 单轮对话准备阶段的结构化并发作用域
+ * JDK 21 的 StructuredTaskScope 仍是预览特性，这里用虚拟线程和 CompletableFuture 实现同样的约束：
+ * - 子任务只能在作用域内派生，可以声明依赖的其他子任务，依赖就绪后才开始执行
+ * - 任一子任务失败时取消尚未开始的子任务，join 抛出最先发生的失败
+ * - 每个子任务的耗时都记为一个 ai.chat.stage 阶段
+ * 已经在执行的子任务不会被中断（避免中断正在进行的 JDBC 调用），结果直接丢弃
+ */
+public final class ChatTurnScope {
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final ChatMetrics chatMetrics;
+
+    private final List<CompletableFuture<?>> forks = new CopyOnWriteArrayList<>();
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public ChatTurnScope(ChatMetrics chatMetrics) {
+        this.chatMetrics = chatMetrics;
+    }
+
+    /**
+     * 派生一个子任务
+     *
+     * @param stage     阶段名，用于耗时指标
+     * @param task      任务
+     * @param dependsOn 依赖的子任务，全部成功后才开始执行
+     */
+    public <T> CompletableFuture<T> fork(String stage, Supplier<T> task, CompletableFuture<?>... dependsOn) {
+        CompletableFuture<T> fork = CompletableFuture.allOf(dependsOn).thenApplyAsync(ignored -> {
+            if (failure.get() != null) {
+                throw new CancellationException();
+            }
+            return chatMetrics.recordStage(stage, task);
+        }, EXECUTOR);
+        forks.add(fork);
+        fork.whenComplete((result, error) -> {
+            if (error != null) {
+                fail(error);
+            }
+        });
+        return fork;
+    }
+
+    /**
+     * 派生一个尽力而为的子任务：不纳入作用域，失败时结果为 null，不会取消其他子任务，
+     * 也不会让 join 和 completion 失败。用于可降级的准备步骤（如提前计算检索向量）
+     *
+     * @param stage 阶段名，用于耗时指标
+     * @param task  任务
+     */
+    public <T> CompletableFuture<T> forkBestEffort(String stage, Supplier<T> task) {
+        return CompletableFuture.supplyAsync(() -> chatMetrics.recordStage(stage, task), EXECUTOR)
+                .exceptionally(error -> null);
+    }
+
+    /**
+     * 等待指定的子任务全部完成，任一子任务失败时立即抛出
+     */
+    public void join(CompletableFuture<?>... futures) {
+        try {
+            CompletableFuture.allOf(futures).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR, "对话准备被中断");
+        } catch (ExecutionException | CancellationException e) {
+            throw propagate(failure.get() != null ? failure.get() : e);
+        }
+    }
+
+    /**
+     * 作用域内所有子任务完成的信号，不发出元素，任一子任务失败时以该失败结束
+     * 用于把不阻塞生成的子任务（如写入用户消息）并入回复流，保证回复结束前它们已完成
+     */
+    public <T> Mono<T> completion() {
+        return Mono.fromFuture(CompletableFuture.allOf(forks.toArray(CompletableFuture[]::new)))
+                .onErrorMap(error -> failure.get() != null ? failure.get() : error)
+                .then(Mono.empty());
+    }
+
+    private void fail(Throwable error) {
+        Throwable cause = unwrap(error);
+        if (cause instanceof CancellationException) {
+            return;
+        }
+        if (failure.compareAndSet(null, cause)) {
+            for (CompletableFuture<?> fork : forks) {
+                fork.cancel(false);
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    private static RuntimeException propagate(Throwable error) {
+        Throwable cause = unwrap(error);
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (cause instanceof Error e) {
+            throw e;
+        }
+        return new BusinessException(ErrorCode.SYSTEM_ERROR, "对话准备失败: " + cause.getMessage());
+    }
+}
@@ -0,0 +1,248 @@
+package com.character.ai.mock;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.character.config.MockModelConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 兼容 OpenAI 接口的本地模拟模型服务，用于压测对话链路本身的开销
+ * - POST /v1/chat/completions：支持流式和非流式，回复内容由提问内容决定（相同提问回复相同），
+ * 首 token 延迟和 token 间隔按配置的分布随机
+ * - POST /v1/embeddings：按文本哈希生成确定的单位向量
+ * 每个请求一个虚拟线程，延迟用 sleep 模拟，单机可以支撑数千路并发流。
+ */
+@Slf4j
+public class MockModelServer {
+
+    private static final String[] TOKEN_POOL = {
+            "好的", "，", "我", "明白", "你的", "意思", "了", "。", "今天", "天气", "不错", "呢", "！",
+            "我们", "可以", "一起", "聊聊", "这个", "话题", "吗", "？", "其实", "也", "挺", "有趣", "的"
+    };
+
+    private final MockModelConfig config;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    public MockModelServer(MockModelConfig config) {
+        this.config = config;
+    }
+
+    public void start() throws IOException {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server = HttpServer.create(new InetSocketAddress(config.getPort()), 4096);
+        server.setExecutor(executor);
+        server.createContext("/v1/chat/completions", this::handleChat);
+        server.createContext("/v1/embeddings", this::handleEmbeddings);
+        server.start();
+        log.info("模拟模型服务已启动，地址: http://localhost:{}/v1", config.getPort());
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void handleChat(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JSONObject request = readJson(exchange);
+            String model = request.getStr("model", "mock-model");
+            String prompt = lastUserMessage(request);
+            int maxTokens = request.getInt("max_tokens", Integer.MAX_VALUE);
+            List<String> tokens = replyTokens(prompt, Math.min(config.getReplyTokens(), maxTokens));
+            int promptTokens = Math.max(1, request.toString().length() / 2);
+            String id = "chatcmpl-mock-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+            long created = System.currentTimeMillis() / 1000;
+            sleep(config.getTtft());
+            if (!request.getBool("stream", false)) {
+                writeJson(exchange, chatCompletion(id, created, model, String.join("", tokens),
+                        promptTokens, tokens.size()));
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < tokens.size(); i++) {
+                if (i > 0) {
+                    sleep(config.getInterToken());
+                }
+                writeEvent(out, chunk(id, created, model, "{\"content\":\"" + tokens.get(i) + "\"}", null));
+            }
+            writeEvent(out, chunk(id, created, model, "{}", "\"stop\""));
+            JSONObject streamOptions = request.getJSONObject("stream_options");
+            if (streamOptions != null && streamOptions.getBool("include_usage", false)) {
+                writeEvent(out, "{\"id\":\"" + id + "\",\"object\":\"chat.completion.chunk\",\"created\":" + created
+                        + ",\"model\":\"" + model + "\",\"choices\":[]," + usage(promptTokens, tokens.size()) + "}");
+            }
+            writeEvent(out, "[DONE]");
+        } catch (IOException e) {
+            // 客户端中断（如回复预算截断）属于正常情况
+            log.debug("模拟对话流被中断: {}", e.getMessage());
+        }
+    }
+
+    private void handleEmbeddings(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JSONObject request = readJson(exchange);
+            Object input = request.get("input");
+            List<String> texts = input instanceof JSONArray array ? array.toList(String.class) : List.of(String.valueOf(input));
+            int dimension = request.getInt("dimensions", config.getEmbeddingDimension());
+            sleep(new MockModelConfig.Delay(MockModelConfig.DelayType.FIXED, config.getEmbeddingLatency(), null));
+            StringBuilder body = new StringBuilder(texts.size() * dimension * 12);
+            body.append("{\"object\":\"list\",\"data\":[");
+            int totalTokens = 0;
+            for (int i = 0; i < texts.size(); i++) {
+                String text = texts.get(i);
+                totalTokens += Math.max(1, text.length() / 2);
+                if (i > 0) {
+                    body.append(',');
+                }
+                body.append("{\"object\":\"embedding\",\"index\":").append(i).append(",\"embedding\":[");
+                float[] vector = embed(text, dimension);
+                for (int d = 0; d < vector.length; d++) {
+                    if (d > 0) {
+                        body.append(',');
+                    }
+                    body.append(vector[d]);
+                }
+                body.append("]}");
+            }
+            body.append("],\"model\":\"").append(request.getStr("model", "mock-embedding")).append("\",")
+                    .append("\"usage\":{\"prompt_tokens\":").append(totalTokens)
+                    .append(",\"total_tokens\":").append(totalTokens).append("}}");
+            writeJson(exchange, body.toString());
+        }
+    }
+
+    /**
+     * 按提问内容确定回复，相同提问得到相同回复，便于对比和校验
+     */
+    private static List<String> replyTokens(String prompt, int count) {
+        Random random = new Random(prompt.hashCode());
+        String[] tokens = new String[Math.max(1, count)];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = TOKEN_POOL[random.nextInt(TOKEN_POOL.length)];
+        }
+        return List.of(tokens);
+    }
+
+    private static float[] embed(String text, int dimension) {
+        Random random = new Random(text.hashCode());
+        float[] vector = new float[dimension];
+        double norm = 0;
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimension; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    private static String lastUserMessage(JSONObject request) {
+        JSONArray messages = request.getJSONArray("messages");
+        if (messages == null) {
+            return "";
+        }
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            JSONObject message = messages.getJSONObject(i);
+            if ("user".equals(message.getStr("role"))) {
+                return String.valueOf(message.get("content"));
+            }
+        }
+        return "";
+    }
+
+    private static String chunk(String id, long created, String model, String delta, String finishReason) {
+        return "{\"id\":\"" + id + "\",\"object\":\"chat.completion.chunk\",\"created\":" + created
+                + ",\"model\":\"" + model + "\",\"choices\":[{\"index\":0,\"delta\":" + delta
+                + ",\"finish_reason\":" + finishReason + "}]}";
+    }
+
+    private static String chatCompletion(String id, long created, String model, String content,
+                                         int promptTokens, int completionTokens) {
+        return "{\"id\":\"" + id + "\",\"object\":\"chat.completion\",\"created\":" + created
+                + ",\"model\":\"" + model + "\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\""
+                + content + "\"},\"finish_reason\":\"stop\"}]," + usage(promptTokens, completionTokens) + "}";
+    }
+
+    private static String usage(int promptTokens, int completionTokens) {
+        return "\"usage\":{\"prompt_tokens\":" + promptTokens + ",\"completion_tokens\":" + completionTokens
+                + ",\"total_tokens\":" + (promptTokens + completionTokens) + "}";
+    }
+
+    private static JSONObject readJson(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return JSONUtil.parseObj(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void writeJson(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void writeEvent(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void sleep(MockModelConfig.Delay delay) {
+        long millis = sampleMillis(delay);
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long sampleMillis(MockModelConfig.Delay delay) {
+        double mean = delay.getMean() == null ? 0 : delay.getMean().toMillis();
+        double spread = delay.getSpread() == null ? 0 : delay.getSpread().toMillis();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double value = switch (delay.getType()) {
+            case FIXED -> mean;
+            case UNIFORM -> mean - spread + random.nextDouble() * 2 * spread;
+            case NORMAL -> mean + random.nextGaussian() * spread;
+            case LOGNORMAL -> {
+                if (mean <= 0) {
+                    yield 0;
+                }
+                // 由目标均值和标准差反推对数正态分布的参数
+                double sigma2 = Math.log(1 + (spread * spread) / (mean * mean));
+                double mu = Math.log(mean) - sigma2 / 2;
+                yield Math.exp(mu + Math.sqrt(sigma2) * random.nextGaussian());
+            }
+        };
+        return Math.max(0, Math.round(value));
+    }
+}
@@ -0,0 +1,80 @@
+package com.character.ai.model;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带本地磁盘缓存的向量模型，只把缓存未命中的文本发给实际的向量模型
+ * 用于知识库入库：重启时内容没变的段落直接从缓存加载
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+
+    private final EmbeddingDiskCache cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, EmbeddingDiskCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        Embedding[] embeddings = new Embedding[textSegments.size()];
+        List<Integer> missIndexes = new ArrayList<>();
+        List<TextSegment> missSegments = new ArrayList<>();
+        for (int i = 0; i < textSegments.size(); i++) {
+            Embedding cached = cache.get(textSegments.get(i).text());
+            if (cached != null) {
+                embeddings[i] = cached;
+            } else {
+                missIndexes.add(i);
+                missSegments.add(textSegments.get(i));
+            }
+        }
+        hits.addAndGet(textSegments.size() - missSegments.size());
+        misses.addAndGet(missSegments.size());
+        if (!missSegments.isEmpty()) {
+            List<Embedding> computed = delegate.embedAll(missSegments).content();
+            List<String> texts = new ArrayList<>(missSegments.size());
+            for (int i = 0; i < missSegments.size(); i++) {
+                embeddings[missIndexes.get(i)] = computed.get(i);
+                texts.add(missSegments.get(i).text());
+            }
+            try {
+                cache.putAll(texts, computed);
+            } catch (IOException e) {
+                // 缓存写入失败只影响下次启动
+                log.warn("写入向量缓存失败，error: {}", e.getMessage());
+            }
+        }
+        return Response.from(Arrays.asList(embeddings));
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,106 @@
+package com.character.ai.model;
+
+import dev.langchain4j.http.client.HttpClient;
+import dev.langchain4j.http.client.HttpClientBuilder;
+import dev.langchain4j.http.client.HttpRequest;
+import dev.langchain4j.http.client.SuccessfulHttpResponse;
+import dev.langchain4j.http.client.sse.ServerSentEvent;
+import dev.langchain4j.http.client.sse.ServerSentEventListener;
+import dev.langchain4j.http.client.sse.ServerSentEventParser;
+
+import java.time.Duration;
+
+/**
+ * 支持 {@link UpstreamCancellation} 的 HTTP 客户端构建器，包装基于 OkHttp 的 langchain4j HTTP 客户端
+ */
+public class CancellableHttpClientBuilder implements HttpClientBuilder {
+
+    private final OkHttpModelClientBuilder delegate;
+
+    public CancellableHttpClientBuilder(OkHttpModelClientBuilder delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Duration connectTimeout() {
+        return delegate.connectTimeout();
+    }
+
+    @Override
+    public HttpClientBuilder connectTimeout(Duration timeout) {
+        delegate.connectTimeout(timeout);
+        return this;
+    }
+
+    @Override
+    public Duration readTimeout() {
+        return delegate.readTimeout();
+    }
+
+    @Override
+    public HttpClientBuilder readTimeout(Duration timeout) {
+        delegate.readTimeout(timeout);
+        return this;
+    }
+
+    @Override
+    public HttpClient build() {
+        return new CancellableHttpClient(delegate.build());
+    }
+
+    /**
+     * 流式请求在调用线程上取得当前的取消句柄，把 OkHttp 的 Call 登记进去
+     * 取消 Call 可以在任意线程进行，响应头到达之前取消也能中断请求；
+     * 而从其他线程关闭 HTTP/1.1 的响应流 OkHttp 并不支持
+     */
+    private static final class CancellableHttpClient implements HttpClient {
+        private final OkHttpModelClientBuilder.OkHttpModelClient delegate;
+
+        private CancellableHttpClient(OkHttpModelClientBuilder.OkHttpModelClient delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public SuccessfulHttpResponse execute(HttpRequest request) {
+            return delegate.execute(request);
+        }
+
+        @Override
+        public void execute(HttpRequest request, ServerSentEventParser parser, ServerSentEventListener listener) {
+            UpstreamCancellation cancellation = UpstreamCancellation.current();
+            if (cancellation == null) {
+                delegate.execute(request, parser, listener);
+                return;
+            }
+            delegate.execute(request, parser, new ServerSentEventListener() {
+                @Override
+                public void onOpen(SuccessfulHttpResponse response) {
+                    listener.onOpen(response);
+                }
+
+                @Override
+                public void onEvent(ServerSentEvent event) {
+                    if (!cancellation.isCancelled()) {
+                        listener.onEvent(event);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    // 主动取消请求导致的异常不再向上报告
+                    if (!cancellation.isCancelled()) {
+                        listener.onError(error);
+                    }
+                }
+
+                @Override
+                public void onClose() {
+                    // 被取消的流不算正常结束，避免把半截回复当作完整响应写入记忆
+                    if (!cancellation.isCancelled()) {
+                        listener.onClose();
+                    }
+                }
+            }, call -> cancellation.register(call::cancel));
+        }
+    }
+}
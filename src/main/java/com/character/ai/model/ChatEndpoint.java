@@ -0,0 +1,98 @@
+package com.character.ai.model;
+
+import com.character.config.chatModel.ChatRoutingConfig;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对话模型端点：持有该端点的流式模型，并统计首 token 延迟与失败情况
+ */
+@Slf4j
+public class ChatEndpoint {
+
+    @Getter
+    private final String name;
+
+    @Getter
+    private final StreamingChatModel model;
+
+    private final ChatRoutingConfig routingConfig;
+
+    /**
+     * 最近的首 token 延迟样本（毫秒），环形缓冲
+     */
+    private final long[] ttftWindow;
+
+    private int sampleCount;
+
+    private int nextSample;
+
+    /**
+     * 首 token 延迟的 EWMA（毫秒），没有样本时为 -1
+     */
+    @Getter
+    private volatile double ewmaTtftMillis = -1;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile long ejectedUntil = System.nanoTime();
+
+    public ChatEndpoint(String name, StreamingChatModel model, ChatRoutingConfig routingConfig) {
+        this.name = name;
+        this.model = model;
+        this.routingConfig = routingConfig;
+        this.ttftWindow = new long[Math.max(1, routingConfig.getLatencyWindow())];
+    }
+
+    /**
+     * 记录首 token 延迟
+     */
+    public synchronized void recordFirstToken(long elapsedNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        ttftWindow[nextSample] = millis;
+        nextSample = (nextSample + 1) % ttftWindow.length;
+        sampleCount = Math.min(sampleCount + 1, ttftWindow.length);
+        double alpha = routingConfig.getEwmaAlpha();
+        ewmaTtftMillis = ewmaTtftMillis < 0 ? millis : alpha * millis + (1 - alpha) * ewmaTtftMillis;
+    }
+
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * 记录失败，连续失败达到阈值后暂时摘除
+     */
+    public void recordFailure() {
+        if (consecutiveFailures.incrementAndGet() >= routingConfig.getFailureThreshold()) {
+            consecutiveFailures.set(0);
+            ejectedUntil = System.nanoTime() + routingConfig.getEjectDuration().toNanos();
+            log.warn("对话模型端点连续失败，暂时摘除: {}, 时长: {}", name, routingConfig.getEjectDuration());
+        }
+    }
+
+    public boolean isEjected() {
+        return ejectedUntil - System.nanoTime() > 0;
+    }
+
+    /**
+     * 对冲等待时间：取最近样本的 p95，并限制在上下限之间
+     */
+    public synchronized Duration hedgeDelay() {
+        if (sampleCount < routingConfig.getMinSamples()) {
+            return routingConfig.getDefaultHedgeDelay();
+        }
+        long[] samples = Arrays.copyOf(ttftWindow, sampleCount);
+        Arrays.sort(samples);
+        long p95 = samples[(int) Math.ceil(samples.length * 0.95) - 1];
+        long min = routingConfig.getMinHedgeDelay().toMillis();
+        long max = routingConfig.getMaxHedgeDelay().toMillis();
+        return Duration.ofMillis(Math.max(min, Math.min(max, p95)));
+    }
+}
@@ -0,0 +1,47 @@
+package com.character.ai.model;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 对话模型端点注册表，所有多例的路由模型共享同一份端点及其延迟统计
+ */
+public class ChatEndpointRegistry {
+
+    @Getter
+    private final List<ChatEndpoint> endpoints;
+
+    public ChatEndpointRegistry(List<ChatEndpoint> endpoints, MeterRegistry meterRegistry) {
+        this.endpoints = List.copyOf(endpoints);
+        for (ChatEndpoint endpoint : this.endpoints) {
+            Gauge.builder("ai.chat.endpoint.ttft.ewma", endpoint, ChatEndpoint::getEwmaTtftMillis)
+                    .description("端点首 token 延迟 EWMA（毫秒）")
+                    .tag("endpoint", endpoint.getName())
+                    .register(meterRegistry);
+            Gauge.builder("ai.chat.endpoint.ejected", endpoint, e -> e.isEjected() ? 1 : 0)
+                    .description("端点是否被摘除")
+                    .tag("endpoint", endpoint.getName())
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * 按优先级排列的候选端点：未摘除的按首 token 延迟 EWMA 升序（无样本的优先探测），
+     * 被摘除的放在最后，仅在其他端点都失败时兜底
+     */
+    public List<ChatEndpoint> candidates() {
+        List<ChatEndpoint> healthy = new ArrayList<>(endpoints.size());
+        List<ChatEndpoint> ejected = new ArrayList<>();
+        for (ChatEndpoint endpoint : endpoints) {
+            (endpoint.isEjected() ? ejected : healthy).add(endpoint);
+        }
+        healthy.sort(Comparator.comparingDouble(ChatEndpoint::getEwmaTtftMillis));
+        healthy.addAll(ejected);
+        return healthy;
+    }
+}
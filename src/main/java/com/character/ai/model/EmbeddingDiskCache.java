@@ -0,0 +1,157 @@
+package com.character.ai.model;
+
+import dev.langchain4j.data.embedding.Embedding;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地磁盘向量缓存，按（模型名，文本内容 SHA-256）索引
+ * 每个模型一个只追加的文件，记录格式为 32 字节内容哈希 + 4 字节维度 + 维度个 float，启动时整体读入内存。
+ * 文本不变时向量直接从文件加载，只有新增或修改过的文本才需要调用向量模型。
+ * 文件只追加，修改或删除过的文本留下的旧记录由 {@link #compact} 在启动入库后清理。
+ */
+@Slf4j
+public class EmbeddingDiskCache {
+
+    private static final int HASH_BYTES = 32;
+
+    private final Path file;
+
+    private final Map<String, float[]> entries = new ConcurrentHashMap<>();
+
+    /**
+     * 加载后被读取或写入过的条目
+     */
+    private final Set<String> used = ConcurrentHashMap.newKeySet();
+
+    public EmbeddingDiskCache(Path dir, String modelName) throws IOException {
+        Files.createDirectories(dir);
+        this.file = dir.resolve(modelName.replaceAll("[^A-Za-z0-9._-]", "_") + ".bin");
+        load();
+    }
+
+    /**
+     * 查询缓存的向量，未命中返回 null
+     */
+    public Embedding get(String text) {
+        String key = hash(text);
+        float[] vector = entries.get(key);
+        if (vector == null) {
+            return null;
+        }
+        used.add(key);
+        return Embedding.from(vector);
+    }
+
+    /**
+     * 写入一批向量并追加到缓存文件
+     */
+    public synchronized void putAll(List<String> texts, List<Embedding> embeddings) throws IOException {
+        try (OutputStream fileOut = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            for (int i = 0; i < texts.size(); i++) {
+                String key = hash(texts.get(i));
+                float[] vector = embeddings.get(i).vector();
+                used.add(key);
+                if (entries.putIfAbsent(key, vector) != null) {
+                    continue;
+                }
+                out.write(HexFormat.of().parseHex(key));
+                out.writeInt(vector.length);
+                for (float value : vector) {
+                    out.writeFloat(value);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 只保留加载后被读取或写入过的条目，重写缓存文件
+     * 应在入库完全部文档之后调用，此时未被用到的条目对应的文本已不存在
+     *
+     * @return 清理的条目数
+     */
+    public synchronized int compact() throws IOException {
+        int stale = entries.size() - used.size();
+        if (stale <= 0) {
+            return 0;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            for (String key : used) {
+                float[] vector = entries.get(key);
+                out.write(HexFormat.of().parseHex(key));
+                out.writeInt(vector.length);
+                for (float value : vector) {
+                    out.writeFloat(value);
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entries.keySet().retainAll(used);
+        log.info("向量缓存清理 {} 条过期记录，保留 {} 条: {}", stale, entries.size(), file);
+        return stale;
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] hash = new byte[HASH_BYTES];
+            while (true) {
+                in.readFully(hash);
+                int dimension = in.readInt();
+                float[] vector = new float[dimension];
+                for (int i = 0; i < dimension; i++) {
+                    vector[i] = in.readFloat();
+                }
+                entries.put(HexFormat.of().formatHex(hash), vector);
+                validLength += HASH_BYTES + 4 + 4L * dimension;
+            }
+        } catch (EOFException e) {
+            // 读到文件末尾，或上次写入中断留下的半条记录
+        }
+        if (validLength < Files.size(file)) {
+            log.warn("向量缓存文件末尾有不完整的记录，截断: {}", file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        log.info("加载向量缓存 {} 条: {}", entries.size(), file);
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.character.ai.model;
+
+import dev.langchain4j.exception.HttpException;
+import dev.langchain4j.exception.TimeoutException;
+import dev.langchain4j.http.client.HttpClient;
+import dev.langchain4j.http.client.HttpClientBuilder;
+import dev.langchain4j.http.client.HttpMethod;
+import dev.langchain4j.http.client.HttpRequest;
+import dev.langchain4j.http.client.SuccessfulHttpResponse;
+import dev.langchain4j.http.client.sse.ServerSentEventListener;
+import dev.langchain4j.http.client.sse.ServerSentEventParser;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static dev.langchain4j.http.client.sse.ServerSentEventListenerUtils.ignoringExceptions;
+
+/**
+ * 基于共享 OkHttpClient 的 langchain4j HTTP 客户端构建器
+ * 各模型只在共享客户端上派生出自己的超时设置，连接池、TLS 会话和调度线程全部共用
+ */
+public class OkHttpModelClientBuilder implements HttpClientBuilder {
+
+    private static final MediaType DEFAULT_MEDIA_TYPE = MediaType.get("application/json; charset=utf-8");
+
+    private final OkHttpClient sharedClient;
+
+    private Duration connectTimeout;
+
+    private Duration readTimeout;
+
+    public OkHttpModelClientBuilder(OkHttpClient sharedClient) {
+        this.sharedClient = sharedClient;
+    }
+
+    @Override
+    public Duration connectTimeout() {
+        return connectTimeout;
+    }
+
+    @Override
+    public HttpClientBuilder connectTimeout(Duration timeout) {
+        this.connectTimeout = timeout;
+        return this;
+    }
+
+    @Override
+    public Duration readTimeout() {
+        return readTimeout;
+    }
+
+    @Override
+    public HttpClientBuilder readTimeout(Duration timeout) {
+        this.readTimeout = timeout;
+        return this;
+    }
+
+    @Override
+    public OkHttpModelClient build() {
+        if (connectTimeout == null && readTimeout == null) {
+            return new OkHttpModelClient(sharedClient);
+        }
+        // newBuilder 派生的客户端与原客户端共享连接池和调度器
+        OkHttpClient.Builder builder = sharedClient.newBuilder();
+        if (connectTimeout != null) {
+            builder.connectTimeout(connectTimeout);
+        }
+        if (readTimeout != null) {
+            builder.readTimeout(readTimeout);
+        }
+        return new OkHttpModelClient(builder.build());
+    }
+
+    /**
+     * 基于 OkHttp 的 HTTP 客户端，流式请求可以取得对应的 {@link Call} 用于取消
+     */
+    public static final class OkHttpModelClient implements HttpClient {
+        private final OkHttpClient client;
+
+        private OkHttpModelClient(OkHttpClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public SuccessfulHttpResponse execute(HttpRequest request) {
+            try (Response response = client.newCall(toOkHttpRequest(request)).execute()) {
+                ResponseBody body = response.body();
+                String bodyString = body == null ? null : body.string();
+                if (!response.isSuccessful()) {
+                    throw new HttpException(response.code(), bodyString);
+                }
+                return SuccessfulHttpResponse.builder()
+                        .statusCode(response.code())
+                        .headers(response.headers().toMultimap())
+                        .body(bodyString)
+                        .build();
+            } catch (SocketTimeoutException e) {
+                throw new TimeoutException(e);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void execute(HttpRequest request, ServerSentEventParser parser, ServerSentEventListener listener) {
+            execute(request, parser, listener, call -> {
+            });
+        }
+
+        /**
+         * 发起流式请求
+         *
+         * @param callListener 请求入队前收到对应的 Call，可在任意线程调用 {@link Call#cancel()} 中断请求，
+         *                     包括响应头到达之前
+         */
+        public void execute(HttpRequest request, ServerSentEventParser parser, ServerSentEventListener listener,
+                            Consumer<Call> callListener) {
+            Call streamCall = client.newCall(toOkHttpRequest(request));
+            callListener.accept(streamCall);
+            // 流式读取在 OkHttp 调度器的线程上进行，并发上限由共享调度器控制
+            streamCall.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    Throwable error = e instanceof SocketTimeoutException ? new TimeoutException(e) : e;
+                    ignoringExceptions(() -> listener.onError(error));
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (response) {
+                        ResponseBody body = response.body();
+                        if (!response.isSuccessful()) {
+                            String bodyString = body == null ? null : body.string();
+                            HttpException error = new HttpException(response.code(), bodyString);
+                            ignoringExceptions(() -> listener.onError(error));
+                            return;
+                        }
+                        SuccessfulHttpResponse successfulResponse = SuccessfulHttpResponse.builder()
+                                .statusCode(response.code())
+                                .headers(response.headers().toMultimap())
+                                .build();
+                        ignoringExceptions(() -> listener.onOpen(successfulResponse));
+                        if (body != null) {
+                            try (InputStream inputStream = body.byteStream()) {
+                                parser.parse(inputStream, listener);
+                            }
+                        }
+                        ignoringExceptions(listener::onClose);
+                    } catch (Exception e) {
+                        Throwable error = e instanceof SocketTimeoutException ? new TimeoutException(e) : e;
+                        ignoringExceptions(() -> listener.onError(error));
+                    }
+                }
+            });
+        }
+
+        private static Request toOkHttpRequest(HttpRequest request) {
+            Request.Builder builder = new Request.Builder().url(request.url());
+            MediaType mediaType = DEFAULT_MEDIA_TYPE;
+            if (request.headers() != null) {
+                for (Map.Entry<String, List<String>> header : request.headers().entrySet()) {
+                    for (String value : header.getValue()) {
+                        builder.addHeader(header.getKey(), value);
+                        if ("Content-Type".equalsIgnoreCase(header.getKey())) {
+                            MediaType parsed = MediaType.parse(value);
+                            if (parsed != null) {
+                                mediaType = parsed;
+                            }
+                        }
+                    }
+                }
+            }
+            RequestBody body = request.body() == null ? null : RequestBody.create(mediaType, request.body());
+            if (request.method() == HttpMethod.GET) {
+                builder.get();
+            } else if (request.method() == HttpMethod.DELETE) {
+                builder.delete(body);
+            } else {
+                builder.post(body == null ? RequestBody.create(mediaType, "") : body);
+            }
+            return builder.build();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.character.ai.model;
+
+import dev.langchain4j.data.embedding.Embedding;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 提前计算的检索向量
+ * 对话准备阶段与其他步骤并行计算用户提问的向量，在发起模型调用的线程上绑定，
+ * RAG 检索时由 {@link PrefetchingEmbeddingModel} 直接取用，不再串行等待一次向量化请求。
+ * 通过 {@link #withTimeout} 带上截止时间后，等待不会超过检索时限，取不到时也不再另行请求向量模型。
+ */
+public final class PrefetchedEmbedding {
+
+    private static final ThreadLocal<PrefetchedEmbedding> CURRENT = new ThreadLocal<>();
+
+    private final String text;
+
+    private final CompletableFuture<Embedding> embedding;
+
+    private final boolean bounded;
+
+    public PrefetchedEmbedding(String text, CompletableFuture<Embedding> embedding) {
+        this(text, embedding, false);
+    }
+
+    private PrefetchedEmbedding(String text, CompletableFuture<Embedding> embedding, boolean bounded) {
+        this.text = text;
+        this.embedding = embedding;
+        this.bounded = bounded;
+    }
+
+    /**
+     * 带截止时间的副本，超时后 {@link #await} 返回 null，不影响原来的计算
+     */
+    public PrefetchedEmbedding withTimeout(Duration timeout) {
+        return new PrefetchedEmbedding(text, embedding.copy().orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS), true);
+    }
+
+    /**
+     * 是否带截止时间，带截止时间时取不到向量应直接失败，由调用方降级
+     */
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    /**
+     * 当前线程绑定的检索向量，没有时返回 null
+     */
+    public static PrefetchedEmbedding current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 在绑定本向量的情况下执行
+     */
+    public <T> T supply(Supplier<T> action) {
+        PrefetchedEmbedding previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 是否为该文本提前计算的向量
+     */
+    public boolean matches(String text) {
+        return this.text.equals(text);
+    }
+
+    /**
+     * 等待向量计算完成，计算失败、被取消或超过截止时间时返回 null
+     */
+    public Embedding await() {
+        try {
+            return embedding.join();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.character.ai.model;
+
+import com.character.ai.rag.QueryEmbeddingCache;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+
+/**
+ * 优先使用当前线程绑定的提前计算向量，没有或文本不一致时再走提问向量缓存
+ * 提前计算的向量带截止时间时，取不到（失败或超时）直接抛出异常，不再同步请求一次向量模型，
+ * 避免向量模型不可用时检索线程长时间阻塞在向量化请求上
+ */
+public class PrefetchingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+
+    private final QueryEmbeddingCache queryEmbeddingCache;
+
+    public PrefetchingEmbeddingModel(EmbeddingModel delegate, QueryEmbeddingCache queryEmbeddingCache) {
+        this.delegate = delegate;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        PrefetchedEmbedding prefetched = PrefetchedEmbedding.current();
+        if (prefetched != null && prefetched.matches(text)) {
+            Embedding embedding = prefetched.await();
+            if (embedding != null) {
+                return Response.from(embedding);
+            }
+            if (prefetched.isBounded()) {
+                throw new IllegalStateException("提问向量化失败或超时");
+            }
+        }
+        return Response.from(queryEmbeddingCache.embed(text));
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        return delegate.embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+}
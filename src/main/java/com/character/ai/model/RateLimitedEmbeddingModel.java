@@ -0,0 +1,46 @@
+package com.character.ai.model;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+
+/**
+ * 限流的向量模型：每次调用前按实际发出的请求数获取许可
+ * 放在本地缓存之下，缓存命中的段落不占用限流额度
+ */
+public class RateLimitedEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+
+    private final RequestRateLimiter rateLimiter;
+
+    private final int segmentsPerRequest;
+
+    /**
+     * @param segmentsPerRequest 向量接口单次请求的段落上限，用于换算一次调用会发出几个请求
+     */
+    public RateLimitedEmbeddingModel(EmbeddingModel delegate, RequestRateLimiter rateLimiter, int segmentsPerRequest) {
+        this.delegate = delegate;
+        this.rateLimiter = rateLimiter;
+        this.segmentsPerRequest = Math.max(1, segmentsPerRequest);
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        try {
+            rateLimiter.acquire((textSegments.size() + segmentsPerRequest - 1) / segmentsPerRequest);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待向量接口限流许可时被中断", e);
+        }
+        return delegate.embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+}
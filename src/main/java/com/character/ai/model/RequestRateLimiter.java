@@ -0,0 +1,39 @@
+package com.character.ai.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 平滑限流器：按固定间隔依次发放许可，不攒突发额度，拿不到许可的调用方在 acquire 中等待
+ */
+public class RequestRateLimiter {
+
+    private final long intervalNanos;
+
+    private long nextFreeNanos = System.nanoTime();
+
+    /**
+     * @param permitsPerSecond 每秒许可数，不大于 0 时不限流
+     */
+    public RequestRateLimiter(double permitsPerSecond) {
+        this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+    }
+
+    /**
+     * 获取许可，必要时等待
+     */
+    public void acquire(int permits) throws InterruptedException {
+        if (intervalNanos == 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextFreeNanos);
+            nextFreeNanos = slot + intervalNanos * permits;
+            waitNanos = slot - now;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
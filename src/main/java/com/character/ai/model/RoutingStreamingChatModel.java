@@ -0,0 +1,248 @@
+package com.character.ai.model;
+
+import com.character.config.chatModel.ChatRoutingConfig;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多端点路由的流式对话模型
+ * - 优先选择首 token 延迟 EWMA 最低的端点
+ * - 首 token 在 p95 推导出的截止时间内未到达时，向下一个端点发起对冲请求，谁先产出 token 就用谁，另一个被中断
+ * - 首 token 之前失败时立即切换到下一个端点；连续失败的端点会被暂时摘除
+ */
+@Slf4j
+public class RoutingStreamingChatModel implements StreamingChatModel {
+
+    private final ChatEndpointRegistry endpointRegistry;
+
+    private final ChatRoutingConfig routingConfig;
+
+    private final MeterRegistry meterRegistry;
+
+    public RoutingStreamingChatModel(ChatEndpointRegistry endpointRegistry, ChatRoutingConfig routingConfig,
+                                     MeterRegistry meterRegistry) {
+        this.endpointRegistry = endpointRegistry;
+        this.routingConfig = routingConfig;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void doChat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+        // 调用方绑定的取消句柄，每个尝试各自持有一个子句柄，落败的尝试可以单独中断
+        UpstreamCancellation cancellation = UpstreamCancellation.current();
+        if (cancellation == null) {
+            cancellation = new UpstreamCancellation();
+        }
+        TurnUsage turnUsage = TurnUsage.current();
+        if (turnUsage != null) {
+            turnUsage.estimatePrompt(chatRequest.messages());
+        }
+        new HedgedCall(chatRequest, handler, endpointRegistry.candidates(), cancellation, turnUsage).start();
+    }
+
+    /**
+     * 一次对冲调用，可能包含多个端点上的尝试
+     */
+    private final class HedgedCall {
+        private final ChatRequest chatRequest;
+        private final StreamingChatResponseHandler handler;
+        private final List<ChatEndpoint> candidates;
+        private final UpstreamCancellation cancellation;
+        private final TurnUsage turnUsage;
+        private final List<Attempt> attempts = new ArrayList<>();
+        private Attempt winner;
+        private int failedAttempts;
+        private boolean finished;
+        private Disposable hedgeTimer;
+
+        private HedgedCall(ChatRequest chatRequest, StreamingChatResponseHandler handler, List<ChatEndpoint> candidates,
+                           UpstreamCancellation cancellation, TurnUsage turnUsage) {
+            this.chatRequest = chatRequest;
+            this.handler = handler;
+            this.candidates = candidates;
+            this.cancellation = cancellation;
+            this.turnUsage = turnUsage;
+        }
+
+        private void start() {
+            Attempt first = launchNext();
+            if (first == null) {
+                handler.onError(new IllegalStateException("没有可用的对话模型端点"));
+                return;
+            }
+            if (routingConfig.isHedgeEnabled() && candidates.size() > 1) {
+                Duration delay = first.endpoint.hedgeDelay();
+                hedgeTimer = Schedulers.parallel().schedule(this::hedge, delay.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            first.start();
+        }
+
+        private void hedge() {
+            Attempt hedge;
+            synchronized (this) {
+                if (winner != null || finished || cancellation.isCancelled()) {
+                    return;
+                }
+                hedge = launchNext();
+            }
+            if (hedge != null) {
+                log.info("首 token 超时，发起对冲请求，端点: {}", hedge.endpoint.getName());
+                meterRegistry.counter("ai.chat.endpoint.hedge", "endpoint", hedge.endpoint.getName()).increment();
+                hedge.start();
+            }
+        }
+
+        /**
+         * 创建下一个端点上的尝试（不启动），需持有锁或在启动前调用
+         */
+        private synchronized Attempt launchNext() {
+            if (attempts.size() >= candidates.size()) {
+                return null;
+            }
+            Attempt attempt = new Attempt(this, candidates.get(attempts.size()));
+            attempts.add(attempt);
+            return attempt;
+        }
+
+        /**
+         * 首个产出 token 的尝试胜出
+         */
+        private synchronized boolean tryWin(Attempt attempt) {
+            if (finished) {
+                return false;
+            }
+            if (winner == null) {
+                winner = attempt;
+                if (turnUsage != null) {
+                    turnUsage.setEndpoint(attempt.endpoint.getName());
+                }
+                if (hedgeTimer != null) {
+                    hedgeTimer.dispose();
+                }
+                for (Attempt other : attempts) {
+                    if (other != attempt) {
+                        other.discarded = true;
+                        other.cancellation.cancel();
+                    }
+                }
+            }
+            return winner == attempt;
+        }
+
+        private void onAttemptError(Attempt attempt, Throwable error) {
+            Attempt next = null;
+            boolean giveUp = false;
+            synchronized (this) {
+                if (finished || attempt.discarded) {
+                    return;
+                }
+                if (winner == attempt) {
+                    // 已经开始输出后失败，无法无缝切换
+                    finished = true;
+                    giveUp = true;
+                } else if (winner == null) {
+                    failedAttempts++;
+                    next = launchNext();
+                    if (next == null && failedAttempts == attempts.size()) {
+                        finished = true;
+                        giveUp = true;
+                    }
+                }
+            }
+            if (giveUp) {
+                if (hedgeTimer != null) {
+                    hedgeTimer.dispose();
+                }
+                handler.onError(error);
+            } else if (next != null) {
+                log.warn("对话模型端点失败，切换到: {}, error: {}", next.endpoint.getName(), error.getMessage());
+                next.start();
+            }
+        }
+
+        private void onAttemptComplete(Attempt attempt, ChatResponse response) {
+            // 没有任何 token 的空回复也视为胜出
+            if (!tryWin(attempt)) {
+                return;
+            }
+            synchronized (this) {
+                finished = true;
+            }
+            if (turnUsage != null) {
+                turnUsage.setTokenUsage(response.tokenUsage());
+            }
+            handler.onCompleteResponse(response);
+        }
+    }
+
+    /**
+     * 单个端点上的一次尝试
+     */
+    private static final class Attempt implements StreamingChatResponseHandler {
+        private final HedgedCall call;
+        private final ChatEndpoint endpoint;
+        private final UpstreamCancellation cancellation;
+        private long startNanos;
+        private boolean firstTokenSeen;
+        private volatile boolean discarded;
+
+        private Attempt(HedgedCall call, ChatEndpoint endpoint) {
+            this.call = call;
+            this.endpoint = endpoint;
+            this.cancellation = call.cancellation.newChild();
+        }
+
+        private void start() {
+            startNanos = System.nanoTime();
+            try {
+                cancellation.run(() -> endpoint.getModel().chat(call.chatRequest, this));
+            } catch (Exception e) {
+                onError(e);
+            }
+        }
+
+        @Override
+        public void onPartialResponse(String partialResponse) {
+            if (discarded) {
+                return;
+            }
+            if (!firstTokenSeen) {
+                firstTokenSeen = true;
+                endpoint.recordFirstToken(System.nanoTime() - startNanos);
+                if (!call.tryWin(this)) {
+                    return;
+                }
+            }
+            call.handler.onPartialResponse(partialResponse);
+        }
+
+        @Override
+        public void onCompleteResponse(ChatResponse completeResponse) {
+            endpoint.recordSuccess();
+            if (!discarded) {
+                call.onAttemptComplete(this, completeResponse);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (cancellation.isCancelled()) {
+                // 主动中断的尝试不计入端点失败
+                return;
+            }
+            endpoint.recordFailure();
+            call.onAttemptError(this, error);
+        }
+    }
+}
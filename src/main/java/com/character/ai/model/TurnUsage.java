@@ -0,0 +1,139 @@
+package com.character.ai.model;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 单轮对话的 token 用量及实际应答的端点
+ * AiServices 转成 Flux 后只剩文本，拿不到模型返回的用量，这里在发起模型调用的线程上绑定，
+ * 由路由模型在发出请求、选定端点和回复完成时写入。
+ * 被截断或中断的回复拿不到模型返回的用量，按请求消息估算的提示词 token 数兜底。
+ */
+public final class TurnUsage {
+
+    private static final ThreadLocal<TurnUsage> CURRENT = new ThreadLocal<>();
+
+    private volatile boolean started;
+
+    private volatile TokenUsage tokenUsage;
+
+    private volatile String endpoint;
+
+    private volatile long estimatedPromptTokens;
+
+    /**
+     * 当前线程绑定的用量记录，没有时返回 null
+     */
+    public static TurnUsage current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 在绑定本记录的情况下发起模型调用
+     */
+    public <T> T supply(Supplier<T> action) {
+        TurnUsage previous = CURRENT.get();
+        CURRENT.set(this);
+        started = true;
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 本轮是否真正发起过模型调用（合并生成的跟随者不会发起）
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    public TokenUsage getTokenUsage() {
+        return tokenUsage;
+    }
+
+    public void setTokenUsage(TokenUsage tokenUsage) {
+        this.tokenUsage = tokenUsage;
+    }
+
+    /**
+     * 首个产出 token 的端点名，尚未产出时为 null
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * 按请求消息估算的提示词 token 数（人设、RAG 上下文、历史和本轮提问），尚未发出请求时为 0
+     */
+    public long getEstimatedPromptTokens() {
+        return estimatedPromptTokens;
+    }
+
+    /**
+     * 发出模型请求前按请求消息估算提示词 token 数
+     */
+    public void estimatePrompt(List<ChatMessage> messages) {
+        long tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += estimateTokens(textOf(message));
+        }
+        this.estimatedPromptTokens = tokens;
+    }
+
+    /**
+     * 粗略估算文本的 token 数：中日韩字符各算一个，其余字符每 4 个算一个，宁多勿少
+     */
+    public static long estimateTokens(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        long cjk = 0;
+        long others = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.UnicodeScript.of(text.charAt(i)) == Character.UnicodeScript.HAN) {
+                cjk++;
+            } else {
+                others++;
+            }
+        }
+        return cjk + (others + 3) / 4;
+    }
+
+    private static String textOf(ChatMessage message) {
+        if (message instanceof SystemMessage systemMessage) {
+            return systemMessage.text();
+        }
+        if (message instanceof UserMessage userMessage) {
+            return userMessage.contents().stream()
+                    .filter(TextContent.class::isInstance)
+                    .map(content -> ((TextContent) content).text())
+                    .collect(Collectors.joining("\n"));
+        }
+        if (message instanceof AiMessage aiMessage) {
+            return aiMessage.text();
+        }
+        if (message instanceof ToolExecutionResultMessage toolMessage) {
+            return toolMessage.text();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,101 @@
+package com.character.ai.model;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 上游模型流的取消句柄
+ * langchain4j 的流式接口没有中断方法，取消 Flux 只是不再接收 token，HTTP 响应仍会读到结束。
+ * 这里在发起模型调用的线程上绑定句柄，HTTP 客户端发起请求时把 HTTP 调用登记进来，
+ * 取消时直接取消 HTTP 调用，真正中断上游生成。
+ */
+@Slf4j
+public final class UpstreamCancellation {
+
+    private static final ThreadLocal<UpstreamCancellation> CURRENT = new ThreadLocal<>();
+
+    private final List<AutoCloseable> resources = new ArrayList<>(2);
+
+    private boolean cancelled;
+
+    /**
+     * 当前线程绑定的取消句柄，没有时返回 null
+     */
+    public static UpstreamCancellation current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 在绑定本句柄的情况下执行，期间发起的模型调用都归本句柄管理
+     */
+    public <T> T supply(Supplier<T> action) {
+        UpstreamCancellation previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public void run(Runnable action) {
+        supply(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * 创建子句柄，父句柄取消时子句柄一并取消，子句柄取消不影响父句柄
+     */
+    public UpstreamCancellation newChild() {
+        UpstreamCancellation child = new UpstreamCancellation();
+        register(child::cancel);
+        return child;
+    }
+
+    /**
+     * 登记需要在取消时关闭的资源，已取消时立即关闭
+     */
+    public void register(AutoCloseable resource) {
+        synchronized (this) {
+            if (!cancelled) {
+                resources.add(resource);
+                return;
+            }
+        }
+        close(resource);
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void cancel() {
+        List<AutoCloseable> toClose;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toClose = new ArrayList<>(resources);
+            resources.clear();
+        }
+        toClose.forEach(UpstreamCancellation::close);
+    }
+
+    private static void close(AutoCloseable resource) {
+        try {
+            resource.close();
+        } catch (Exception e) {
+            log.debug("关闭上游模型流失败: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.character.ai.rag;
+
+import dev.langchain4j.data.segment.TextSegment;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 知识库段落的 BM25 倒排索引，纯内存计算，检索不需要任何网络调用
+ * 与 {@link PartitionedEmbeddingStore} 一样按段落元数据 appName 分区、使用同一套段落 id，
+ * 两边的检索结果可以按 id 融合。分词规则见 {@link CjkNgramTokenizer}。
+ * 每个分区一把读写锁：检索持读锁，写入和删除持写锁，{@link #replace} 替换期间检索看不到新旧段落混在一起。
+ * 指标：
+ * - ai.rag.bm25.segments：索引的段落数
+ * - ai.rag.bm25.search：检索耗时
+ */
+public class Bm25Index {
+
+    private final double k1;
+
+    private final double b;
+
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * 段落 id 所在的分区，用于按 id 删除
+     */
+    private final Map<String, String> idPartitions = new ConcurrentHashMap<>();
+
+    private final Timer searchTimer;
+
+    /**
+     * @param k1            词频饱和参数，越大词频的影响越持久
+     * @param b             文档长度归一化程度，0 为不归一化，1 为完全归一化
+     * @param meterRegistry 指标注册
+     */
+    public Bm25Index(double k1, double b, MeterRegistry meterRegistry) {
+        this.k1 = k1;
+        this.b = b;
+        this.searchTimer = Timer.builder("ai.rag.bm25.search")
+                .description("BM25 词法检索耗时")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("ai.rag.bm25.segments", idPartitions, Map::size)
+                .description("BM25 索引的段落数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 写入段落，id 已存在时先删除旧段落
+     */
+    public void addAll(List<String> ids, List<TextSegment> segments) {
+        removeAll(ids.stream().filter(idPartitions::containsKey).toList());
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            TextSegment segment = segments.get(i);
+            String name = PartitionedEmbeddingStore.partitionOf(segment);
+            Partition partition = partitions.computeIfAbsent(name, key -> new Partition());
+            partition.lock.writeLock().lock();
+            try {
+                partition.add(id, segment);
+                idPartitions.put(id, name);
+            } finally {
+                partition.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 按 id 删除段落，不存在的 id 忽略
+     */
+    public void removeAll(Collection<String> ids) {
+        for (String id : ids) {
+            String name = idPartitions.remove(id);
+            Partition partition = name == null ? null : partitions.get(name);
+            if (partition != null) {
+                partition.lock.writeLock().lock();
+                try {
+                    partition.remove(id);
+                } finally {
+                    partition.lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 原子地替换一批段落，替换期间涉及分区的检索会等待
+     *
+     * @param removeIds 要删除的段落 id
+     * @param ids       新段落 id
+     * @param segments  新段落
+     */
+    public void replace(Collection<String> removeIds, List<String> ids, List<TextSegment> segments) {
+        // 按分区名排序加锁，并发替换时不会死锁
+        Set<String> names = new TreeSet<>();
+        for (String id : removeIds) {
+            String name = idPartitions.get(id);
+            if (name != null) {
+                names.add(name);
+            }
+        }
+        segments.forEach(segment -> names.add(PartitionedEmbeddingStore.partitionOf(segment)));
+        List<Partition> locked = new ArrayList<>(names.size());
+        try {
+            for (String name : names) {
+                Partition partition = partitions.computeIfAbsent(name, key -> new Partition());
+                partition.lock.writeLock().lock();
+                locked.add(partition);
+            }
+            removeAll(removeIds);
+            addAll(ids, segments);
+        } finally {
+            locked.forEach(partition -> partition.lock.writeLock().unlock());
+        }
+    }
+
+    /**
+     * 检索
+     *
+     * @param partition  分区（appName），为 null 时检索全部分区
+     * @param query      提问文本
+     * @param maxResults 最多返回的段落数
+     * @return 按 BM25 得分降序排列的段落
+     */
+    public List<Match> search(String partition, String query, int maxResults) {
+        Set<String> terms = new LinkedHashSet<>(CjkNgramTokenizer.tokenize(query));
+        if (terms.isEmpty() || maxResults <= 0) {
+            return List.of();
+        }
+        return searchTimer.record(() -> {
+            List<Match> matches = new ArrayList<>();
+            if (partition != null) {
+                Partition target = partitions.get(partition);
+                if (target != null) {
+                    matches.addAll(target.search(terms, maxResults));
+                }
+            } else {
+                // 各分区的文档频率和平均长度分别统计，得分只在分区内可比，合并后近似排序
+                for (Partition target : partitions.values()) {
+                    matches.addAll(target.search(terms, maxResults));
+                }
+                matches.sort(Comparator.comparingDouble(Match::score).reversed());
+            }
+            return matches.size() > maxResults ? List.copyOf(matches.subList(0, maxResults)) : matches;
+        });
+    }
+
+    /**
+     * 索引的段落数
+     */
+    public int size() {
+        return idPartitions.size();
+    }
+
+    /**
+     * 各分区段落数
+     */
+    public Map<String, Integer> partitionSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        partitions.forEach((name, partition) -> {
+            partition.lock.readLock().lock();
+            try {
+                sizes.put(name, partition.docs.size());
+            } finally {
+                partition.lock.readLock().unlock();
+            }
+        });
+        return sizes;
+    }
+
+    /**
+     * 一条检索结果
+     */
+    public record Match(String id, TextSegment segment, double score) {
+    }
+
+    /**
+     * 索引中的一个段落
+     *
+     * @param termFreqs 词 → 词频
+     */
+    private record Doc(TextSegment segment, int length, Map<String, Integer> termFreqs) {
+    }
+
+    private final class Partition {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Doc> docs = new HashMap<>();
+        /**
+         * 倒排表：词 → (段落 id → 词频)
+         */
+        private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+        private long totalLength;
+
+        /**
+         * 需持有写锁
+         */
+        private void add(String id, TextSegment segment) {
+            List<String> tokens = CjkNgramTokenizer.tokenize(segment.text());
+            Map<String, Integer> termFreqs = new HashMap<>();
+            tokens.forEach(token -> termFreqs.merge(token, 1, Integer::sum));
+            docs.put(id, new Doc(segment, tokens.size(), termFreqs));
+            termFreqs.forEach((term, freq) -> postings.computeIfAbsent(term, key -> new HashMap<>()).put(id, freq));
+            totalLength += tokens.size();
+        }
+
+        /**
+         * 需持有写锁
+         */
+        private void remove(String id) {
+            Doc doc = docs.remove(id);
+            if (doc == null) {
+                return;
+            }
+            doc.termFreqs().keySet().forEach(term -> {
+                Map<String, Integer> posting = postings.get(term);
+                if (posting != null) {
+                    posting.remove(id);
+                    if (posting.isEmpty()) {
+                        postings.remove(term);
+                    }
+                }
+            });
+            totalLength -= doc.length();
+        }
+
+        private List<Match> search(Set<String> terms, int maxResults) {
+            lock.readLock().lock();
+            try {
+                int docCount = docs.size();
+                if (docCount == 0) {
+                    return List.of();
+                }
+                double avgLength = Math.max(1.0, (double) totalLength / docCount);
+                Map<String, Double> scores = new HashMap<>();
+                for (String term : terms) {
+                    Map<String, Integer> posting = postings.get(term);
+                    if (posting == null) {
+                        continue;
+                    }
+                    int docFreq = posting.size();
+                    double idf = Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+                    posting.forEach((id, freq) -> {
+                        double norm = k1 * (1 - b + b * docs.get(id).length() / avgLength);
+                        scores.merge(id, idf * freq * (k1 + 1) / (freq + norm), Double::sum);
+                    });
+                }
+                // 小顶堆保留得分最高的 maxResults 个
+                PriorityQueue<Map.Entry<String, Double>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+                for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                    top.offer(entry);
+                    if (top.size() > maxResults) {
+                        top.poll();
+                    }
+                }
+                List<Match> matches = new ArrayList<>(top.size());
+                while (!top.isEmpty()) {
+                    Map.Entry<String, Double> entry = top.poll();
+                    matches.add(new Match(entry.getKey(), docs.get(entry.getKey()).segment(), entry.getValue()));
+                }
+                matches.sort(Comparator.comparingDouble(Match::score).reversed());
+                return matches;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
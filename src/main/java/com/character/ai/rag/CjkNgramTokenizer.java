@@ -0,0 +1,65 @@
+package com.character.ai.rag;
+
+import cn.hutool.core.convert.Convert;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 面向中文的词法检索分词：不依赖词典，按字切分
+ * - 连续的中日韩文字输出单字和相邻两字（bigram），人名、招式名等词典里没有的词也能按字组命中
+ * - 连续的字母数字作为一个词，转小写
+ * - 标点、空白等其他字符作为分隔
+ * 入库和检索使用同一套规则，全角先转半角
+ */
+public final class CjkNgramTokenizer {
+
+    private CjkNgramTokenizer() {
+    }
+
+    /**
+     * 切分文本，同一个词出现多次时重复输出
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String normalized = Convert.toDBC(text).toLowerCase();
+        StringBuilder word = new StringBuilder();
+        int previousCjk = -1;
+        for (int i = 0; i < normalized.length(); ) {
+            int codePoint = normalized.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isCjk(codePoint)) {
+                flushWord(word, tokens);
+                tokens.add(new String(Character.toChars(codePoint)));
+                if (previousCjk >= 0) {
+                    tokens.add(new StringBuilder().appendCodePoint(previousCjk).appendCodePoint(codePoint).toString());
+                }
+                previousCjk = codePoint;
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                word.appendCodePoint(codePoint);
+                previousCjk = -1;
+            } else {
+                flushWord(word, tokens);
+                previousCjk = -1;
+            }
+        }
+        flushWord(word, tokens);
+        return tokens;
+    }
+
+    private static void flushWord(StringBuilder word, List<String> tokens) {
+        if (!word.isEmpty()) {
+            tokens.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+}
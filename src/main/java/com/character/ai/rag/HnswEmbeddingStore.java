@@ -0,0 +1,461 @@
+package com.character.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于 HNSW（分层可导航小世界图）的近似最近邻向量存储
+ * - m：每层每个节点的邻居数上限（第 0 层为 2m），越大召回越高，内存和建图耗时也越大
+ * - efConstruction：插入时的候选集大小，决定建图质量
+ * - efSearch：检索时的候选集大小，决定召回和延迟，实际取 max(efSearch, maxResults)
+ * 相似度为余弦相似度：向量入库时归一化，之后按点积计算，返回的向量也是归一化后的。
+ * 写入串行执行，检索不加锁：节点数组、节点数和入口点作为一个不可变的状态整体发布，检索开始时读一次状态，
+ * 只访问该状态内的节点；邻居表按层整体替换，可能指向状态之后才插入的节点，检索时按节点数过滤。
+ * 删除只打墓碑标记，检索时跳过，节点仍参与图上的导航。
+ * 带元数据过滤的检索逐步扩大候选集，仍凑不够结果时退化为对全部节点的精确扫描。
+ */
+public class HnswEmbeddingStore implements TombstoneEmbeddingStore {
+
+    private final int m;
+
+    private final int maxM0;
+
+    private final int efConstruction;
+
+    private final int efSearch;
+
+    private final double levelMultiplier;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private final Map<String, Integer> idIndex = new ConcurrentHashMap<>();
+
+    private final AtomicInteger deletedCount = new AtomicInteger();
+
+    private volatile Graph graph = Graph.empty();
+
+    public HnswEmbeddingStore(int m, int efConstruction, int efSearch) {
+        this.m = Math.max(2, m);
+        this.maxM0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.efSearch = Math.max(1, efSearch);
+        this.levelMultiplier = 1 / Math.log(this.m);
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = generateIds(1).get(0);
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = generateIds(1).get(0);
+        addAll(List.of(id), List.of(embedding), List.of(textSegment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = generateIds(embeddings.size());
+        addAll(ids, embeddings, null);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        writeLock.lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                TextSegment segment = embedded == null ? null : embedded.get(i);
+                insert(ids.get(i), VectorMath.normalize(embeddings.get(i).vector()), segment);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        writeLock.lock();
+        try {
+            Node[] snapshot = graph.nodes;
+            for (String id : ids) {
+                Integer index = idIndex.remove(id);
+                if (index != null) {
+                    markDeleted(snapshot[index]);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        writeLock.lock();
+        try {
+            Graph current = graph;
+            for (int i = 0; i < current.size; i++) {
+                Node node = current.nodes[i];
+                if (!node.deleted && filter.test(metadataOf(node))) {
+                    idIndex.remove(node.id, i);
+                    markDeleted(node);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 清空后正在进行的检索仍使用旧状态，不受影响
+     */
+    @Override
+    public void removeAll() {
+        writeLock.lock();
+        try {
+            graph = Graph.empty();
+            idIndex.clear();
+            deletedCount.set(0);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        // 只读一次状态，之后只访问其中的节点
+        Graph published = graph;
+        EntryPoint entry = published.entryPoint;
+        if (entry == null) {
+            return new EmbeddingSearchResult<>(List.of());
+        }
+        float[] query = VectorMath.normalize(request.queryEmbedding().vector());
+        Node[] snapshot = published.nodes;
+        int count = published.size;
+        int current = entry.node;
+        for (int level = entry.level; level > 0; level--) {
+            current = greedyClosest(snapshot, count, query, current, level);
+        }
+        int maxResults = request.maxResults();
+        boolean needsMore = request.filter() != null || deletedCount.get() > 0;
+        for (int ef = Math.max(efSearch, maxResults); ; ef *= 2) {
+            if (ef >= count) {
+                // 候选集已覆盖全部节点，直接精确扫描
+                return exactSearch(snapshot, count, query, request);
+            }
+            List<Candidate> found = searchLayer(snapshot, count, query, current, ef, 0);
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(maxResults);
+            int accepted = 0;
+            for (Candidate candidate : found) {
+                Node node = snapshot[candidate.node];
+                if (!accepts(node, request.filter())) {
+                    continue;
+                }
+                accepted++;
+                double score = RelevanceScore.fromCosineSimilarity(candidate.similarity);
+                if (score >= request.minScore() && matches.size() < maxResults) {
+                    matches.add(toMatch(node, score));
+                }
+            }
+            // 候选集没有填满说明可达的节点已全部找到，再扩大也不会有更多结果
+            if (accepted >= maxResults || !needsMore || found.size() < ef) {
+                return new EmbeddingSearchResult<>(matches);
+            }
+        }
+    }
+
+    /**
+     * 有效（未删除）的段落数
+     */
+    @Override
+    public int size() {
+        return graph.size - deletedCount.get();
+    }
+
+    /**
+     * 已删除但仍留在图中的节点数
+     */
+    @Override
+    public int deletedCount() {
+        return deletedCount.get();
+    }
+
+    /**
+     * 全部有效段落，向量为归一化后的向量
+     */
+    @Override
+    public List<EmbeddingMatch<TextSegment>> liveEntries() {
+        Graph published = graph;
+        List<EmbeddingMatch<TextSegment>> entries = new ArrayList<>(published.size);
+        for (int i = 0; i < published.size; i++) {
+            Node node = published.nodes[i];
+            if (!node.deleted) {
+                entries.add(toMatch(node, 1));
+            }
+        }
+        return entries;
+    }
+
+    private void insert(String id, float[] vector, TextSegment segment) {
+        Integer existing = idIndex.get(id);
+        Graph published = graph;
+        if (existing != null) {
+            markDeleted(published.nodes[existing]);
+        }
+        int level = (int) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * levelMultiplier);
+        Node node = new Node(id, vector, segment, level);
+        int index = published.size;
+        // 扩容时复制出新数组，检索中的旧数组保持不变；新节点的槽位在发布新状态之前对检索不可见
+        Node[] snapshot = index < published.nodes.length ? published.nodes
+                : Arrays.copyOf(published.nodes, Math.max(16, published.nodes.length * 2));
+        snapshot[index] = node;
+        EntryPoint entry = published.entryPoint;
+        if (entry == null) {
+            graph = new Graph(snapshot, index + 1, new EntryPoint(index, level));
+            idIndex.put(id, index);
+            return;
+        }
+        int current = entry.node;
+        for (int l = entry.level; l > level; l--) {
+            current = greedyClosest(snapshot, index, vector, current, l);
+        }
+        for (int l = Math.min(level, entry.level); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(snapshot, index, vector, current, efConstruction, l);
+            int[] selected = selectNeighbors(snapshot, candidates, m);
+            node.neighbors.set(l, selected);
+            int maxM = l == 0 ? maxM0 : m;
+            for (int neighbor : selected) {
+                connect(snapshot, neighbor, index, l, maxM);
+            }
+            current = candidates.get(0).node;
+        }
+        graph = new Graph(snapshot, index + 1, level > entry.level ? new EntryPoint(index, level) : entry);
+        idIndex.put(id, index);
+    }
+
+    /**
+     * 把 target 加入 node 在该层的邻居，超出上限时按启发式重新挑选
+     */
+    private void connect(Node[] snapshot, int node, int target, int level, int maxM) {
+        int[] current = snapshot[node].neighbors.get(level);
+        int[] updated;
+        if (current.length < maxM) {
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = target;
+        } else {
+            float[] base = snapshot[node].vector;
+            List<Candidate> candidates = new ArrayList<>(current.length + 1);
+            for (int neighbor : current) {
+                candidates.add(new Candidate(neighbor, VectorMath.dot(base, snapshot[neighbor].vector)));
+            }
+            candidates.add(new Candidate(target, VectorMath.dot(base, snapshot[target].vector)));
+            candidates.sort(Candidate.BEST_FIRST);
+            updated = selectNeighbors(snapshot, candidates, maxM);
+        }
+        snapshot[node].neighbors.set(level, updated);
+    }
+
+    /**
+     * 启发式挑选邻居：候选离查询点比离已选邻居更近时才选中，保证邻居分布在不同方向，不够时用剩下的最近候选补齐
+     *
+     * @param candidates 按相似度降序排列的候选
+     */
+    private int[] selectNeighbors(Node[] snapshot, List<Candidate> candidates, int limit) {
+        int[] selected = new int[Math.min(limit, candidates.size())];
+        int count = 0;
+        List<Candidate> pruned = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (count >= limit) {
+                break;
+            }
+            boolean diverse = true;
+            float[] vector = snapshot[candidate.node].vector;
+            for (int i = 0; i < count; i++) {
+                if (VectorMath.dot(vector, snapshot[selected[i]].vector) > candidate.similarity) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = candidate.node;
+            } else {
+                pruned.add(candidate);
+            }
+        }
+        for (int i = 0; i < pruned.size() && count < selected.length; i++) {
+            selected[count++] = pruned.get(i).node;
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * 贪心地走向与查询最相似的节点，只访问前 count 个节点
+     */
+    private int greedyClosest(Node[] snapshot, int count, float[] query, int start, int level) {
+        int current = start;
+        float best = VectorMath.dot(query, snapshot[current].vector);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbor : snapshot[current].neighbors.get(level)) {
+                if (neighbor >= count) {
+                    continue;
+                }
+                float similarity = VectorMath.dot(query, snapshot[neighbor].vector);
+                if (similarity > best) {
+                    best = similarity;
+                    current = neighbor;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在某一层上做束搜索，返回按相似度降序排列的至多 ef 个节点
+     */
+    private List<Candidate> searchLayer(Node[] snapshot, int count, float[] query, int entry, int ef, int level) {
+        BitSet visited = new BitSet(count);
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>(Candidate.BEST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Candidate.WORST_FIRST);
+        Candidate start = new Candidate(entry, VectorMath.dot(query, snapshot[entry].vector));
+        visited.set(entry);
+        frontier.add(start);
+        results.add(start);
+        while (!frontier.isEmpty()) {
+            Candidate candidate = frontier.poll();
+            if (results.size() >= ef && candidate.similarity < results.peek().similarity) {
+                break;
+            }
+            for (int neighbor : snapshot[candidate.node].neighbors.get(level)) {
+                if (neighbor >= count || visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float similarity = VectorMath.dot(query, snapshot[neighbor].vector);
+                if (results.size() < ef || similarity > results.peek().similarity) {
+                    Candidate next = new Candidate(neighbor, similarity);
+                    frontier.add(next);
+                    results.add(next);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(Candidate.BEST_FIRST);
+        return sorted;
+    }
+
+    private EmbeddingSearchResult<TextSegment> exactSearch(Node[] snapshot, int count, float[] query,
+                                                           EmbeddingSearchRequest request) {
+        PriorityQueue<Candidate> best = new PriorityQueue<>(Candidate.WORST_FIRST);
+        for (int i = 0; i < count; i++) {
+            Node node = snapshot[i];
+            if (!accepts(node, request.filter())) {
+                continue;
+            }
+            float similarity = VectorMath.dot(query, node.vector);
+            if (RelevanceScore.fromCosineSimilarity(similarity) < request.minScore()) {
+                continue;
+            }
+            best.add(new Candidate(i, similarity));
+            if (best.size() > request.maxResults()) {
+                best.poll();
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(best);
+        sorted.sort(Candidate.BEST_FIRST);
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(sorted.size());
+        for (Candidate candidate : sorted) {
+            matches.add(toMatch(snapshot[candidate.node], RelevanceScore.fromCosineSimilarity(candidate.similarity)));
+        }
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    private boolean accepts(Node node, Filter filter) {
+        return !node.deleted && (filter == null || filter.test(metadataOf(node)));
+    }
+
+    private static Object metadataOf(Node node) {
+        return node.segment == null ? null : node.segment.metadata();
+    }
+
+    private EmbeddingMatch<TextSegment> toMatch(Node node, double score) {
+        return new EmbeddingMatch<>(score, node.id, Embedding.from(node.vector), node.segment);
+    }
+
+    private void markDeleted(Node node) {
+        if (!node.deleted) {
+            node.deleted = true;
+            deletedCount.incrementAndGet();
+        }
+    }
+
+    private static final class Node {
+        private final String id;
+        private final float[] vector;
+        private final TextSegment segment;
+        private final AtomicReferenceArray<int[]> neighbors;
+        private volatile boolean deleted;
+
+        private Node(String id, float[] vector, TextSegment segment, int level) {
+            this.id = id;
+            this.vector = vector;
+            this.segment = segment;
+            this.neighbors = new AtomicReferenceArray<>(level + 1);
+            for (int i = 0; i <= level; i++) {
+                neighbors.set(i, new int[0]);
+            }
+        }
+    }
+
+    private record EntryPoint(int node, int level) {
+    }
+
+    /**
+     * 对检索发布的图状态：前 size 个节点以及入口点，整体替换
+     */
+    private record Graph(Node[] nodes, int size, EntryPoint entryPoint) {
+        /**
+         * 空图，每次新建：节点数组会被写入，不能在多个存储之间共享
+         */
+        private static Graph empty() {
+            return new Graph(new Node[16], 0, null);
+        }
+    }
+
+    private record Candidate(int node, float similarity) {
+        private static final Comparator<Candidate> BEST_FIRST = (a, b) -> Float.compare(b.similarity, a.similarity);
+        private static final Comparator<Candidate> WORST_FIRST = (a, b) -> Float.compare(a.similarity, b.similarity);
+    }
+}
@@ -0,0 +1,219 @@
+package com.character.ai.rag;
+
+import com.character.ai.model.PrefetchedEmbedding;
+import com.character.config.HybridRetrievalConfig;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 混合检索：BM25 词法检索与向量检索并行，按倒数排名融合（RRF）
+ * - 向量检索擅长语义相近的表述，人名、招式名等罕见词则靠 BM25 按字面命中，两路互补
+ * - 融合只看各路内的排名，不需要把余弦相似度和 BM25 得分换算到同一尺度
+ * - 向量检索（含提问向量化）超时或失败时只用 BM25 结果，向量模型变慢或不可用时检索照常可用
+ * - 向量检索连续失败达到阈值后暂停一段时间，期间不再调用向量模型（包括提前计算提问向量），
+ *   避免每轮对话都留下一个等待向量化请求超时的线程；暂停到期后放行请求试探是否恢复
+ * 指标 ai.rag.hybrid 按 mode（hybrid / fallback / lexical / paused）计数。
+ */
+@Slf4j
+@Component
+public class HybridRetriever {
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Resource
+    private Bm25Index bm25Index;
+
+    @Resource
+    private HybridRetrievalConfig hybridRetrievalConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private Counter hybridCounter;
+
+    private Counter fallbackCounter;
+
+    private Counter lexicalCounter;
+
+    private Counter pausedCounter;
+
+    /**
+     * 向量检索连续失败次数，成功时清零
+     */
+    private final AtomicInteger vectorFailures = new AtomicInteger();
+
+    /**
+     * 暂停调用向量模型的截止时刻（System.nanoTime），连续失败次数未达到阈值时无意义
+     */
+    private volatile long vectorPausedUntil;
+
+    @PostConstruct
+    public void init() {
+        hybridCounter = meterRegistry.counter("ai.rag.hybrid", "mode", "hybrid");
+        fallbackCounter = meterRegistry.counter("ai.rag.hybrid", "mode", "fallback");
+        lexicalCounter = meterRegistry.counter("ai.rag.hybrid", "mode", "lexical");
+        pausedCounter = meterRegistry.counter("ai.rag.hybrid", "mode", "paused");
+    }
+
+    /**
+     * 本轮检索是否不调用向量模型（只做词法检索，或向量检索暂停中），此时无需提前计算提问向量
+     */
+    public boolean skipsVector() {
+        return hybridRetrievalConfig.isEnabled() && (hybridRetrievalConfig.isLexicalOnly() || isVectorPaused());
+    }
+
+    /**
+     * 向量检索器应返回的段落数：混合检索时取融合候选数
+     */
+    public int vectorMaxResults() {
+        return hybridRetrievalConfig.isEnabled() ? hybridRetrievalConfig.getCandidates()
+                : hybridRetrievalConfig.getMaxResults();
+    }
+
+    /**
+     * 包装向量检索器，加上同一分区的 BM25 检索并融合结果
+     *
+     * @param vectorRetriever 向量检索器
+     * @param partition       检索的分区（appName）
+     */
+    public ContentRetriever fuse(ContentRetriever vectorRetriever, String partition) {
+        if (!hybridRetrievalConfig.isEnabled()) {
+            return vectorRetriever;
+        }
+        return query -> {
+            int maxResults = hybridRetrievalConfig.getMaxResults();
+            if (hybridRetrievalConfig.isLexicalOnly()) {
+                lexicalCounter.increment();
+                return toContents(bm25Index.search(partition, query.text(), maxResults));
+            }
+            if (isVectorPaused()) {
+                pausedCounter.increment();
+                return toContents(bm25Index.search(partition, query.text(), maxResults));
+            }
+            CompletableFuture<List<Content>> vector = retrieveAsync(vectorRetriever, query);
+            List<Bm25Index.Match> lexical = bm25Index.search(partition, query.text(),
+                    hybridRetrievalConfig.getCandidates());
+            List<Content> vectorContents = await(vector);
+            if (vectorContents == null) {
+                fallbackCounter.increment();
+                onVectorFailure();
+                return toContents(lexical.subList(0, Math.min(maxResults, lexical.size())));
+            }
+            vectorFailures.set(0);
+            hybridCounter.increment();
+            return reciprocalRankFusion(vectorContents, lexical, maxResults);
+        };
+    }
+
+    private boolean isVectorPaused() {
+        return vectorFailures.get() >= hybridRetrievalConfig.getVectorFailureThreshold()
+                && System.nanoTime() - vectorPausedUntil < 0;
+    }
+
+    /**
+     * 记录一次向量检索失败，连续失败达到阈值后暂停（暂停到期后的试探请求再失败时重新计时）
+     */
+    private void onVectorFailure() {
+        int failures = vectorFailures.incrementAndGet();
+        if (failures >= hybridRetrievalConfig.getVectorFailureThreshold()) {
+            vectorPausedUntil = System.nanoTime() + hybridRetrievalConfig.getVectorPauseDuration().toNanos();
+            log.warn("向量检索连续失败 {} 次，{} 秒内只使用 BM25 结果", failures,
+                    hybridRetrievalConfig.getVectorPauseDuration().toSeconds());
+        }
+    }
+
+    /**
+     * 在虚拟线程上执行向量检索，带上调用线程绑定的提前计算向量
+     * 提前计算的向量带上与向量检索相同的截止时间：cancel 不会中断检索线程，超时后线程要能自行结束等待
+     */
+    private CompletableFuture<List<Content>> retrieveAsync(ContentRetriever vectorRetriever, Query query) {
+        PrefetchedEmbedding prefetched = PrefetchedEmbedding.current();
+        PrefetchedEmbedding bounded = prefetched == null ? null
+                : prefetched.withTimeout(hybridRetrievalConfig.getVectorTimeout());
+        return CompletableFuture.supplyAsync(() -> bounded == null ? vectorRetriever.retrieve(query)
+                : bounded.supply(() -> vectorRetriever.retrieve(query)), EXECUTOR);
+    }
+
+    /**
+     * 等待向量检索结果，超时或失败时返回 null
+     */
+    private List<Content> await(CompletableFuture<List<Content>> vector) {
+        try {
+            return vector.get(hybridRetrievalConfig.getVectorTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            vector.cancel(true);
+            log.warn("向量检索超过 {} ms 未返回，只使用 BM25 结果", hybridRetrievalConfig.getVectorTimeout().toMillis());
+        } catch (ExecutionException e) {
+            log.warn("向量检索失败，只使用 BM25 结果, error: {}", e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * 倒数排名融合：段落得分为其在各路结果中 1 / (k + 排名) 之和，排名从 1 开始
+     * 两路结果按段落 id 对应，向量结果没有 id 时按段落文本对应
+     */
+    private List<Content> reciprocalRankFusion(List<Content> vector, List<Bm25Index.Match> lexical, int maxResults) {
+        int k = hybridRetrievalConfig.getRrfK();
+        Map<String, Content> contents = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (int i = 0; i < vector.size(); i++) {
+            Content content = vector.get(i);
+            Object id = content.metadata().get(ContentMetadata.EMBEDDING_ID);
+            String key = id != null ? id.toString() : content.textSegment().text();
+            contents.putIfAbsent(key, content);
+            scores.merge(key, 1.0 / (k + i + 1), Double::sum);
+        }
+        for (int i = 0; i < lexical.size(); i++) {
+            Bm25Index.Match match = lexical.get(i);
+            String key = match.id();
+            contents.putIfAbsent(key, toContent(match));
+            scores.merge(key, 1.0 / (k + i + 1), Double::sum);
+        }
+        List<Map.Entry<String, Double>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()));
+        List<Content> fused = new ArrayList<>(Math.min(maxResults, ranked.size()));
+        for (Map.Entry<String, Double> entry : ranked.subList(0, Math.min(maxResults, ranked.size()))) {
+            // 得分换成融合得分，其余元数据保留
+            Content content = contents.get(entry.getKey());
+            Map<ContentMetadata, Object> metadata = new EnumMap<>(ContentMetadata.class);
+            metadata.putAll(content.metadata());
+            metadata.put(ContentMetadata.SCORE, entry.getValue());
+            fused.add(Content.from(content.textSegment(), metadata));
+        }
+        return fused;
+    }
+
+    private static List<Content> toContents(List<Bm25Index.Match> matches) {
+        return matches.stream().map(HybridRetriever::toContent).toList();
+    }
+
+    private static Content toContent(Bm25Index.Match match) {
+        return Content.from(match.segment(), Map.of(ContentMetadata.SCORE, match.score(),
+                ContentMetadata.EMBEDDING_ID, match.id()));
+    }
+}
@@ -0,0 +1,506 @@
+package com.character.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.exception.UnsupportedFeatureException;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 按应用分区的向量存储
+ * 入库时按段落元数据 appName 分区，每个分区是一个独立的向量存储。检索时如果过滤条件是 appName 等值，
+ * 只在目标分区内检索，检索代价只与该应用自身的语料规模相关；其他过滤条件在各分区分别检索后合并。
+ * 每个分区两把锁：写入锁串行化本分区的写入、删除和重建，检索不需要；检索锁由检索持读锁，
+ * 只在切换可见性（提交替换、换上重建后的存储）时短暂持写锁。
+ * 通过 {@link #replace} 替换段落时，新段落先在检索锁之外写入存储，写入期间作为待提交段落在检索结果中过滤掉，
+ * 写完后持检索写锁删除旧段落并提交新段落，检索不会看到新旧段落混在一起，也不会因写入而长时间等待。
+ * 分区存储删除只打墓碑（{@link TombstoneEmbeddingStore}）时，删除后墓碑占比超过 compactRatio 即用有效段落
+ * 重建一个新存储，重建在检索锁之外进行，完成后持检索写锁换上新存储。
+ * 指标：
+ * - ai.rag.partition.segments：分区段落数
+ * - ai.rag.partition.search：分区检索耗时
+ * - ai.rag.partition.compact：分区重建次数
+ * 均按 partition 区分
+ */
+@Slf4j
+public class PartitionedEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    /**
+     * 默认的重建阈值：墓碑超过分区总向量数的 20%
+     */
+    public static final double DEFAULT_COMPACT_RATIO = 0.2;
+
+    /**
+     * 分区依据的段落元数据
+     */
+    public static final String PARTITION_KEY = "appName";
+
+    private static final String DEFAULT_PARTITION = "_default";
+
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * 段落 id 所在的分区，用于按 id 删除
+     */
+    private final Map<String, String> idPartitions = new ConcurrentHashMap<>();
+
+    private final Supplier<EmbeddingStore<TextSegment>> partitionFactory;
+
+    private final double compactRatio;
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * @param partitionFactory 创建单个分区的向量存储
+     * @param meterRegistry    指标注册
+     */
+    public PartitionedEmbeddingStore(Supplier<EmbeddingStore<TextSegment>> partitionFactory, MeterRegistry meterRegistry) {
+        this(partitionFactory, DEFAULT_COMPACT_RATIO, meterRegistry);
+    }
+
+    /**
+     * @param partitionFactory 创建单个分区的向量存储
+     * @param compactRatio     墓碑占比超过该值时重建分区，不大于 0 时不重建
+     * @param meterRegistry    指标注册
+     */
+    public PartitionedEmbeddingStore(Supplier<EmbeddingStore<TextSegment>> partitionFactory, double compactRatio,
+                                     MeterRegistry meterRegistry) {
+        this.partitionFactory = partitionFactory;
+        this.compactRatio = compactRatio;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = generateIds(1).get(0);
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = generateIds(1).get(0);
+        addAll(List.of(id), List.of(embedding), List.of(textSegment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = generateIds(embeddings.size());
+        addAll(ids, embeddings, null);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        // 按分区分组后批量写入，持写入锁，不会写进正在重建、即将被换掉的存储
+        group(ids, embeddings, embedded).forEach(batch -> {
+            Partition partition = partitions.computeIfAbsent(batch.partition(), this::createPartition);
+            partition.writeLock.lock();
+            try {
+                partition.insert(batch);
+                partition.commit(batch);
+            } finally {
+                partition.writeLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        removeAll(ids, true);
+    }
+
+    /**
+     * @param lock 是否由本方法加锁；为 false 时调用方已持有涉及分区的写入锁和检索写锁
+     */
+    private void removeAll(Collection<String> ids, boolean lock) {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (String id : ids) {
+            String name = idPartitions.remove(id);
+            if (name != null) {
+                groups.computeIfAbsent(name, key -> new ArrayList<>()).add(id);
+            }
+        }
+        groups.forEach((name, groupIds) -> {
+            Partition partition = partitions.get(name);
+            if (partition == null) {
+                return;
+            }
+            if (lock) {
+                partition.remove(groupIds);
+            } else {
+                partition.tombstone(groupIds);
+            }
+        });
+    }
+
+    /**
+     * 只支持按分区整体删除
+     */
+    @Override
+    public void removeAll(Filter filter) {
+        String name = targetPartition(filter);
+        if (name == null) {
+            throw new UnsupportedFeatureException("分区向量存储只支持按 " + PARTITION_KEY + " 整体删除");
+        }
+        Partition partition = partitions.get(name);
+        if (partition != null) {
+            partition.clear();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        partitions.values().forEach(Partition::clear);
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        String name = targetPartition(request.filter());
+        if (name != null) {
+            // 目标分区内已经全部满足过滤条件，不再逐条过滤
+            Partition partition = partitions.get(name);
+            if (partition == null) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            return partition.search(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(request.queryEmbedding())
+                    .maxResults(request.maxResults())
+                    .minScore(request.minScore())
+                    .build());
+        }
+        // 其他过滤条件：各分区分别检索后合并
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>();
+        for (Partition partition : partitions.values()) {
+            matches.addAll(partition.search(request).matches());
+        }
+        matches.sort(Comparator.comparingDouble((EmbeddingMatch<TextSegment> match) -> match.score()).reversed());
+        return new EmbeddingSearchResult<>(matches.subList(0, Math.min(request.maxResults(), matches.size())));
+    }
+
+    /**
+     * 原子地替换一批段落：先写入新段落再删除旧段落
+     * 新段落在检索锁之外写入，写入期间检索照常进行、看不到新段落；之后只在删除旧段落、提交新段落时
+     * 短暂暂停涉及分区的检索，检索看到的要么全是替换前的段落，要么全是替换后的
+     *
+     * @param removeIds  要删除的段落 id
+     * @param ids        新段落 id
+     * @param embeddings 新段落向量
+     * @param embedded   新段落
+     */
+    public void replace(Collection<String> removeIds, List<String> ids, List<Embedding> embeddings,
+                        List<TextSegment> embedded) {
+        // 按分区名排序加锁，并发替换时不会死锁
+        Set<String> names = new TreeSet<>();
+        for (String id : removeIds) {
+            String name = idPartitions.get(id);
+            if (name != null) {
+                names.add(name);
+            }
+        }
+        embedded.forEach(segment -> names.add(partitionOf(segment)));
+        List<Partition> locked = new ArrayList<>(names.size());
+        List<Batch> batches = group(ids, embeddings, embedded);
+        try {
+            for (String name : names) {
+                Partition partition = partitions.computeIfAbsent(name, this::createPartition);
+                partition.writeLock.lock();
+                locked.add(partition);
+            }
+            // 1. 新段落写入存储但暂不提交，写入期间检索照常进行
+            List<Batch> inserted = new ArrayList<>(batches.size());
+            try {
+                for (Batch batch : batches) {
+                    Partition partition = partitions.get(batch.partition());
+                    partition.staged.addAll(batch.ids());
+                    inserted.add(batch);
+                    partition.insert(batch);
+                }
+            } catch (RuntimeException e) {
+                // 写入失败时撤回已写入的新段落，旧段落保持不变
+                inserted.forEach(batch -> partitions.get(batch.partition()).discard(batch));
+                throw e;
+            }
+            // 2. 短暂持有检索写锁，删除旧段落并提交新段落
+            locked.forEach(partition -> partition.swapLock.writeLock().lock());
+            try {
+                removeAll(removeIds, false);
+                batches.forEach(batch -> partitions.get(batch.partition()).commit(batch));
+            } finally {
+                locked.forEach(partition -> partition.swapLock.writeLock().unlock());
+            }
+            // 3. 墓碑过多的分区在检索锁之外重建
+            locked.forEach(Partition::compactIfNeeded);
+        } finally {
+            locked.forEach(partition -> partition.writeLock.unlock());
+        }
+    }
+
+    /**
+     * 各分区段落数
+     */
+    public Map<String, Integer> partitionSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        partitions.forEach((name, partition) -> sizes.put(name, partition.ids.size()));
+        return sizes;
+    }
+
+    private Partition createPartition(String name) {
+        Partition partition = new Partition(name, partitionFactory.get(), Timer.builder("ai.rag.partition.search")
+                .description("分区向量检索耗时")
+                .tag("partition", name)
+                .register(meterRegistry));
+        Gauge.builder("ai.rag.partition.segments", partition.ids, Set::size)
+                .description("分区段落数")
+                .tag("partition", name)
+                .register(meterRegistry);
+        return partition;
+    }
+
+    /**
+     * 按分区分组
+     */
+    private static List<Batch> group(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            TextSegment segment = embedded == null ? null : embedded.get(i);
+            groups.computeIfAbsent(partitionOf(segment), key -> new ArrayList<>()).add(i);
+        }
+        List<Batch> batches = new ArrayList<>(groups.size());
+        groups.forEach((name, indexes) -> {
+            List<String> groupIds = new ArrayList<>(indexes.size());
+            List<Embedding> groupEmbeddings = new ArrayList<>(indexes.size());
+            List<TextSegment> groupSegments = embedded == null ? null : new ArrayList<>(indexes.size());
+            for (int index : indexes) {
+                groupIds.add(ids.get(index));
+                groupEmbeddings.add(embeddings.get(index));
+                if (groupSegments != null) {
+                    groupSegments.add(embedded.get(index));
+                }
+            }
+            batches.add(new Batch(name, groupIds, groupEmbeddings, groupSegments));
+        });
+        return batches;
+    }
+
+    static String partitionOf(TextSegment segment) {
+        if (segment == null) {
+            return DEFAULT_PARTITION;
+        }
+        String name = segment.metadata().getString(PARTITION_KEY);
+        return name == null ? DEFAULT_PARTITION : name;
+    }
+
+    /**
+     * 过滤条件为 appName 等值时返回目标分区
+     */
+    private static String targetPartition(Filter filter) {
+        if (filter instanceof IsEqualTo isEqualTo && PARTITION_KEY.equals(isEqualTo.key())) {
+            return String.valueOf(isEqualTo.comparisonValue());
+        }
+        return null;
+    }
+
+    /**
+     * 同一分区的一批段落，segments 为 null 表示只有向量
+     */
+    private record Batch(String partition, List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+    }
+
+    private final class Partition {
+        private final String name;
+        private final Timer searchTimer;
+        private final Set<String> ids = ConcurrentHashMap.newKeySet();
+        /**
+         * 串行化本分区的写入、删除和重建
+         */
+        private final ReentrantLock writeLock = new ReentrantLock();
+        /**
+         * 检索持读锁，切换可见性时持写锁
+         */
+        private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+        /**
+         * 已写入存储、等待 {@link #replace} 提交的段落 id，检索结果中过滤掉
+         */
+        private final Set<String> staged = ConcurrentHashMap.newKeySet();
+        /**
+         * 重建后整体替换，只在检索写锁下修改
+         */
+        private volatile EmbeddingStore<TextSegment> store;
+
+        private Partition(String name, EmbeddingStore<TextSegment> store, Timer searchTimer) {
+            this.name = name;
+            this.store = store;
+            this.searchTimer = searchTimer;
+        }
+
+        /**
+         * 写入存储，需持有写入锁
+         */
+        private void insert(Batch batch) {
+            if (batch.segments() == null) {
+                for (int i = 0; i < batch.ids().size(); i++) {
+                    store.add(batch.ids().get(i), batch.embeddings().get(i));
+                }
+            } else {
+                store.addAll(batch.ids(), batch.embeddings(), batch.segments());
+            }
+        }
+
+        /**
+         * 提交已写入的段落，之后检索可见；需持有写入锁，替换时还需持有检索写锁
+         */
+        private void commit(Batch batch) {
+            ids.addAll(batch.ids());
+            batch.ids().forEach(id -> idPartitions.put(id, name));
+            staged.removeAll(batch.ids());
+        }
+
+        /**
+         * 撤回写入后未提交的段落，需持有写入锁
+         */
+        private void discard(Batch batch) {
+            try {
+                store.removeAll(batch.ids());
+            } catch (RuntimeException e) {
+                log.warn("撤回未提交的段落失败，分区: {}, error: {}", name, e.getMessage());
+            } finally {
+                staged.removeAll(batch.ids());
+            }
+        }
+
+        /**
+         * 删除段落，墓碑过多时重建
+         */
+        private void remove(List<String> removeIds) {
+            writeLock.lock();
+            try {
+                swapLock.writeLock().lock();
+                try {
+                    tombstone(removeIds);
+                } finally {
+                    swapLock.writeLock().unlock();
+                }
+                compactIfNeeded();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * 从存储中删除段落，需持有写入锁和检索写锁
+         */
+        private void tombstone(List<String> removeIds) {
+            store.removeAll(removeIds);
+            removeIds.forEach(ids::remove);
+        }
+
+        /**
+         * 墓碑占比超过阈值时用有效段落重建存储，需持有写入锁；重建期间检索照常进行，只在换上新存储时持检索写锁
+         */
+        private void compactIfNeeded() {
+            if (compactRatio <= 0 || !(store instanceof TombstoneEmbeddingStore tombstones)) {
+                return;
+            }
+            int deleted = tombstones.deletedCount();
+            int live = tombstones.size();
+            if (deleted == 0 || deleted <= compactRatio * (deleted + live)) {
+                return;
+            }
+            long startNanos = System.nanoTime();
+            List<EmbeddingMatch<TextSegment>> entries = tombstones.liveEntries();
+            EmbeddingStore<TextSegment> fresh = partitionFactory.get();
+            if (!entries.isEmpty()) {
+                fresh.addAll(entries.stream().map(EmbeddingMatch::embeddingId).toList(),
+                        entries.stream().map(EmbeddingMatch::embedding).toList(),
+                        entries.stream().map(EmbeddingMatch::embedded).toList());
+            }
+            swapLock.writeLock().lock();
+            try {
+                store = fresh;
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+            // 换上新存储后已没有检索在使用旧存储
+            if (tombstones instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    log.warn("关闭重建前的分区存储失败，分区: {}, error: {}", name, e.getMessage());
+                }
+            }
+            meterRegistry.counter("ai.rag.partition.compact", "partition", name).increment();
+            log.info("分区墓碑过多，已重建，分区: {}, 有效段落: {}, 清理墓碑: {}, 耗时: {} ms", name, entries.size(),
+                    deleted, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+
+        /**
+         * 清空分区，期间暂停本分区的检索
+         */
+        private void clear() {
+            writeLock.lock();
+            swapLock.writeLock().lock();
+            try {
+                store.removeAll();
+                ids.forEach(idPartitions::remove);
+                ids.clear();
+            } finally {
+                swapLock.writeLock().unlock();
+                writeLock.unlock();
+            }
+        }
+
+        private EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+            swapLock.readLock().lock();
+            try {
+                return searchTimer.record(() -> {
+                    if (staged.isEmpty()) {
+                        return store.search(request);
+                    }
+                    // 有待提交的段落时多取同样数量的结果，过滤后仍能凑满
+                    EmbeddingSearchRequest widened = EmbeddingSearchRequest.builder()
+                            .queryEmbedding(request.queryEmbedding())
+                            .maxResults(request.maxResults() + staged.size())
+                            .minScore(request.minScore())
+                            .filter(request.filter())
+                            .build();
+                    List<EmbeddingMatch<TextSegment>> matches = store.search(widened).matches().stream()
+                            .filter(match -> !staged.contains(match.embeddingId()))
+                            .limit(request.maxResults())
+                            .toList();
+                    return new EmbeddingSearchResult<>(matches);
+                });
+            } finally {
+                swapLock.readLock().unlock();
+            }
+        }
+    }
+}
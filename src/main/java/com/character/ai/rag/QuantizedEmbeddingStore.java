@@ -0,0 +1,400 @@
+package com.character.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * int8 量化的堆外向量存储
+ * - 向量归一化后按每个向量一个缩放系数量化为 int8，量化码和缩放系数放在堆外直接内存中，按块分配
+ * - 全精度向量写入内存映射的临时文件，常驻页缓存但不占堆，内存紧张时可被操作系统换出
+ * - 检索先用 int8 点积扫描全部向量，取 maxResults * rerankFactor 个候选，再读取全精度向量重新打分排序
+ * 写入串行执行，检索不加锁：块数组、段落数组和条数作为一个不可变的状态整体发布，写完一条向量后才发布新状态，
+ * 检索开始时读一次状态，只读取其中已发布的部分。
+ * 删除只打墓碑标记，段落 id 和元数据仍在堆上，过滤在打分之前执行，因此带过滤的检索也是精确扫描。
+ */
+public class QuantizedEmbeddingStore implements TombstoneEmbeddingStore, AutoCloseable {
+
+    /**
+     * 扫描时每次从堆外批量复制到堆上的向量数
+     */
+    private static final int SCAN_BLOCK = 256;
+
+    private final Path dir;
+
+    private final int chunkSize;
+
+    private final int rerankFactor;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private final Map<String, Integer> idIndex = new ConcurrentHashMap<>();
+
+    private final AtomicInteger deletedCount = new AtomicInteger();
+
+    private volatile View view = new View(new Chunk[0], new Entry[16], 0);
+
+    private volatile int dimension;
+
+    private FileChannel vectorFile;
+
+    private byte[] codeBuffer;
+
+    /**
+     * @param dir          全精度向量映射文件所在目录
+     * @param chunkSize    每块容纳的向量数
+     * @param rerankFactor 参与全精度重排的候选数相对 maxResults 的倍数
+     */
+    public QuantizedEmbeddingStore(Path dir, int chunkSize, int rerankFactor) {
+        this.dir = dir;
+        this.chunkSize = Math.max(SCAN_BLOCK, chunkSize);
+        this.rerankFactor = Math.max(1, rerankFactor);
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = generateIds(1).get(0);
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = generateIds(1).get(0);
+        addAll(List.of(id), List.of(embedding), List.of(textSegment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = generateIds(embeddings.size());
+        addAll(ids, embeddings, null);
+        return ids;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        writeLock.lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                TextSegment segment = embedded == null ? null : embedded.get(i);
+                insert(ids.get(i), VectorMath.normalize(embeddings.get(i).vector()), segment);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        writeLock.lock();
+        try {
+            Entry[] snapshot = view.entries;
+            for (String id : ids) {
+                Integer index = idIndex.remove(id);
+                if (index != null) {
+                    markDeleted(snapshot[index]);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        writeLock.lock();
+        try {
+            View current = view;
+            for (int i = 0; i < current.size; i++) {
+                Entry entry = current.entries[i];
+                if (!entry.deleted && filter.test(metadataOf(entry))) {
+                    idIndex.remove(entry.id, i);
+                    markDeleted(entry);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 清空全部向量，已分配的块保留复用
+     * 正在进行的检索仍使用旧状态，不会越界，但复用的块可能被随后的写入覆盖，调用方应在清空期间暂停检索
+     */
+    @Override
+    public void removeAll() {
+        writeLock.lock();
+        try {
+            view = new View(view.chunks, new Entry[16], 0);
+            idIndex.clear();
+            deletedCount.set(0);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        // 只读一次状态，之后只访问其中的块和段落
+        View published = view;
+        int count = published.size;
+        if (count == 0) {
+            return new EmbeddingSearchResult<>(List.of());
+        }
+        int dim = dimension;
+        Chunk[] chunkSnapshot = published.chunks;
+        Entry[] entrySnapshot = published.entries;
+        float[] query = VectorMath.normalize(request.queryEmbedding().vector());
+        byte[] queryCodes = new byte[dim];
+        float queryScale = VectorMath.quantize(query, queryCodes);
+        int candidateCount = request.maxResults() * rerankFactor;
+
+        // 第一阶段：int8 粗排
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(Candidate.WORST_FIRST);
+        byte[] block = new byte[SCAN_BLOCK * dim];
+        for (int c = 0; c * chunkSize < count; c++) {
+            Chunk chunk = chunkSnapshot[c];
+            int inChunk = Math.min(chunkSize, count - c * chunkSize);
+            for (int start = 0; start < inChunk; start += SCAN_BLOCK) {
+                int length = Math.min(SCAN_BLOCK, inChunk - start);
+                chunk.codes.get(start * dim, block, 0, length * dim);
+                for (int j = 0; j < length; j++) {
+                    int index = c * chunkSize + start + j;
+                    if (!accepts(entrySnapshot[index], request.filter())) {
+                        continue;
+                    }
+                    float approx = VectorMath.dot(queryCodes, 0, block, j * dim, dim)
+                            * queryScale * chunk.scales.get(start + j);
+                    if (candidates.size() < candidateCount) {
+                        candidates.add(new Candidate(index, approx));
+                    } else if (approx > candidates.peek().similarity) {
+                        candidates.poll();
+                        candidates.add(new Candidate(index, approx));
+                    }
+                }
+            }
+        }
+
+        // 第二阶段：全精度重排
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            float[] vector = new float[dim];
+            chunkSnapshot[candidate.index / chunkSize].vectors.get((candidate.index % chunkSize) * dim, vector);
+            double score = RelevanceScore.fromCosineSimilarity(VectorMath.dot(query, vector));
+            if (score >= request.minScore()) {
+                Entry entry = entrySnapshot[candidate.index];
+                matches.add(new EmbeddingMatch<>(score, entry.id, Embedding.from(vector), entry.segment));
+            }
+        }
+        matches.sort(Comparator.comparingDouble(EmbeddingMatch<TextSegment>::score).reversed());
+        return new EmbeddingSearchResult<>(matches.size() > request.maxResults()
+                ? new ArrayList<>(matches.subList(0, request.maxResults())) : matches);
+    }
+
+    /**
+     * 有效（未删除）的段落数
+     */
+    @Override
+    public int size() {
+        return view.size - deletedCount.get();
+    }
+
+    @Override
+    public int deletedCount() {
+        return deletedCount.get();
+    }
+
+    /**
+     * 全部有效段落，向量为从映射文件读出的归一化全精度向量
+     */
+    @Override
+    public List<EmbeddingMatch<TextSegment>> liveEntries() {
+        View published = view;
+        int dim = dimension;
+        List<EmbeddingMatch<TextSegment>> live = new ArrayList<>(published.size);
+        for (int i = 0; i < published.size; i++) {
+            Entry entry = published.entries[i];
+            if (entry.deleted) {
+                continue;
+            }
+            float[] vector = new float[dim];
+            published.chunks[i / chunkSize].vectors.get((i % chunkSize) * dim, vector);
+            live.add(new EmbeddingMatch<>(1.0, entry.id, Embedding.from(vector), entry.segment));
+        }
+        return live;
+    }
+
+    /**
+     * 关闭映射文件，已映射的块在被回收前仍可读取；堆外内存随块一起被回收
+     */
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            if (vectorFile != null) {
+                vectorFile.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("关闭向量映射文件失败", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 已分配的块可容纳的向量数
+     */
+    public int capacity() {
+        return view.chunks.length * chunkSize;
+    }
+
+    /**
+     * 已分配的堆外直接内存字节数（量化码 + 缩放系数）
+     */
+    public long offHeapBytes() {
+        return (long) view.chunks.length * chunkSize * (dimension + Float.BYTES);
+    }
+
+    /**
+     * 全精度向量占用的映射文件字节数
+     */
+    public long mappedBytes() {
+        return (long) view.chunks.length * chunkSize * dimension * Float.BYTES;
+    }
+
+    private void insert(String id, float[] vector, TextSegment segment) {
+        if (dimension == 0) {
+            dimension = vector.length;
+            codeBuffer = new byte[vector.length];
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不一致，期望 " + dimension + "，实际 " + vector.length);
+        }
+        View published = view;
+        Integer existing = idIndex.get(id);
+        if (existing != null) {
+            markDeleted(published.entries[existing]);
+        }
+        int index = published.size;
+        int slot = index % chunkSize;
+        Chunk[] chunks = published.chunks;
+        if (index / chunkSize == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = allocateChunk(chunks.length - 1);
+        }
+        // 扩容时复制出新数组，检索中的旧数组保持不变
+        Entry[] entries = index < published.entries.length ? published.entries
+                : Arrays.copyOf(published.entries, published.entries.length * 2);
+        Chunk chunk = chunks[index / chunkSize];
+        float scale = VectorMath.quantize(vector, codeBuffer);
+        chunk.codes.put(slot * dimension, codeBuffer);
+        chunk.scales.put(slot, scale);
+        chunk.vectors.put(slot * dimension, vector);
+        entries[index] = new Entry(id, segment);
+        view = new View(chunks, entries, index + 1);
+        idIndex.put(id, index);
+    }
+
+    private Chunk allocateChunk(int chunkIndex) {
+        try {
+            if (vectorFile == null) {
+                vectorFile = openVectorFile();
+            }
+            long bytes = (long) chunkSize * dimension * Float.BYTES;
+            ByteBuffer mapped = vectorFile.map(FileChannel.MapMode.READ_WRITE, chunkIndex * bytes, bytes);
+            return new Chunk(
+                    ByteBuffer.allocateDirect(chunkSize * dimension),
+                    ByteBuffer.allocateDirect(chunkSize * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer(),
+                    mapped.order(ByteOrder.nativeOrder()).asFloatBuffer());
+        } catch (IOException e) {
+            throw new UncheckedIOException("分配向量存储块失败", e);
+        }
+    }
+
+    /**
+     * 打开全精度向量映射文件，打开后立即删除文件名，进程退出时由操作系统回收
+     * 不支持删除已打开文件的系统上退回进程退出时删除
+     */
+    private FileChannel openVectorFile() throws IOException {
+        Files.createDirectories(dir);
+        Path file = Files.createTempFile(dir, "vectors-", ".f32");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+        return channel;
+    }
+
+    private boolean accepts(Entry entry, Filter filter) {
+        return !entry.deleted && (filter == null || filter.test(metadataOf(entry)));
+    }
+
+    private static Object metadataOf(Entry entry) {
+        return entry.segment == null ? null : entry.segment.metadata();
+    }
+
+    private void markDeleted(Entry entry) {
+        if (!entry.deleted) {
+            entry.deleted = true;
+            deletedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 一块向量：量化码、缩放系数在堆外直接内存，全精度向量在映射文件中
+     */
+    private record Chunk(ByteBuffer codes, FloatBuffer scales, FloatBuffer vectors) {
+    }
+
+    /**
+     * 对检索发布的存储状态：前 size 条向量所在的块和段落，整体替换
+     */
+    private record View(Chunk[] chunks, Entry[] entries, int size) {
+    }
+
+    private static final class Entry {
+        private final String id;
+        private final TextSegment segment;
+        private volatile boolean deleted;
+
+        private Entry(String id, TextSegment segment) {
+            this.id = id;
+            this.segment = segment;
+        }
+    }
+
+    private record Candidate(int index, float similarity) {
+        private static final Comparator<Candidate> WORST_FIRST = (a, b) -> Float.compare(a.similarity, b.similarity);
+    }
+}
@@ -0,0 +1,113 @@
+package com.character.ai.rag;
+
+import com.character.config.QueryEmbeddingCacheConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 提问向量缓存，按归一化后的提问文本缓存向量，重复提问不再调用远程向量模型
+ * 同一提问的并发请求只会调用一次向量模型。
+ * 指标：
+ * - ai.rag.query.cache：按 result（hit / miss）计数
+ * - ai.rag.query.embed：未命中时调用向量模型的耗时
+ * - ai.rag.embed.saved：缓存命中和跳过检索省下的向量化耗时（毫秒），按未命中的平均耗时估算
+ */
+@Component
+public class QueryEmbeddingCache {
+
+    @Resource
+    private EmbeddingModel embeddingModel;
+
+    @Resource
+    private QueryEmbeddingCacheConfig queryEmbeddingCacheConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, Embedding> cache;
+
+    private final LongAdder embedNanos = new LongAdder();
+
+    private final LongAdder embedCount = new LongAdder();
+
+    private Counter hitCounter;
+
+    private Counter missCounter;
+
+    private Counter savedCounter;
+
+    private Timer embedTimer;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(queryEmbeddingCacheConfig.getMaxSize())
+                .expireAfterWrite(queryEmbeddingCacheConfig.getExpireAfterWrite())
+                .build();
+        hitCounter = meterRegistry.counter("ai.rag.query.cache", "result", "hit");
+        missCounter = meterRegistry.counter("ai.rag.query.cache", "result", "miss");
+        savedCounter = Counter.builder("ai.rag.embed.saved")
+                .description("缓存命中和跳过检索省下的向量化耗时（毫秒）")
+                .register(meterRegistry);
+        embedTimer = Timer.builder("ai.rag.query.embed")
+                .description("提问向量化耗时")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("ai.rag.query.cache.size", cache, Cache::estimatedSize)
+                .description("缓存的提问向量数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取提问的向量，未命中时调用向量模型并缓存
+     */
+    public Embedding embed(String text) {
+        if (!queryEmbeddingCacheConfig.isEnabled()) {
+            return embedRemote(text);
+        }
+        boolean[] loaded = {false};
+        Embedding embedding = cache.get(RetrievalRouter.normalize(text), key -> {
+            loaded[0] = true;
+            return embedRemote(text);
+        });
+        if (loaded[0]) {
+            missCounter.increment();
+        } else {
+            hitCounter.increment();
+            recordSaved();
+        }
+        return embedding;
+    }
+
+    /**
+     * 记录省下一次向量化调用
+     */
+    public void recordSaved() {
+        long count = embedCount.sum();
+        if (count > 0) {
+            savedCounter.increment((double) embedNanos.sum() / count / 1_000_000);
+        }
+    }
+
+    private Embedding embedRemote(String text) {
+        long startNanos = System.nanoTime();
+        Embedding embedding = embeddingModel.embed(text).content();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        embedTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        embedNanos.add(elapsedNanos);
+        embedCount.increment();
+        return embedding;
+    }
+}
@@ -0,0 +1,230 @@
+package com.character.ai.rag;
+
+import com.character.config.RagIngestionConfig;
+import com.character.config.RagWatchConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 知识库文档热更新：监听文档目录（含子目录），文件新增、修改、删除后增量重建索引，无需重启
+ * - 变更先攒起来，最后一次变更后静默 debounce 时长再处理，同一文件的多次变更合并为一次；持续变更时最多等待 maxDelay
+ * - 处理时按文件当前状态归类：存在的重新切分和向量化，已不存在但入过库的删除其段落
+ * - 新旧段落通过分区存储原子替换，替换期间检索照常进行
+ * - 事件溢出时重新扫描整个目录
+ * 指标 ai.rag.reload：单次增量重建耗时，按 result 区分
+ */
+@Slf4j
+@Component
+public class RagDocumentWatcher {
+
+    @Resource
+    private RagIngestionPipeline ragIngestionPipeline;
+
+    @Resource
+    private RagIngestionConfig ragIngestionConfig;
+
+    @Resource
+    private RagWatchConfig ragWatchConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private Path root;
+
+    private WatchService watchService;
+
+    private Thread watcher;
+
+    private volatile boolean running = true;
+
+    /**
+     * 监听的目录，只在监听线程上访问（启动时除外）
+     */
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+    /**
+     * 待处理的变更路径
+     */
+    private final Set<Path> pending = new LinkedHashSet<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!ragWatchConfig.isEnabled()) {
+            return;
+        }
+        root = Paths.get(ragIngestionConfig.getDocDir()).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            log.info("知识库文档目录不存在，不开启热更新: {}", root);
+            return;
+        }
+        watchService = root.getFileSystem().newWatchService();
+        registerTree(root, false);
+        watcher = new Thread(this::runWatcher, "rag-doc-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        log.info("知识库文档热更新已开启，目录: {}", root);
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        running = false;
+        if (watchService != null) {
+            // 关闭后阻塞在 take/poll 上的监听线程会收到 ClosedWatchServiceException 退出
+            watchService.close();
+        }
+    }
+
+    private void runWatcher() {
+        long firstEventNanos = 0;
+        long lastEventNanos = 0;
+        try {
+            while (running) {
+                WatchKey key;
+                if (pending.isEmpty()) {
+                    key = watchService.take();
+                } else {
+                    long deadline = Math.min(lastEventNanos + ragWatchConfig.getDebounce().toNanos(),
+                            firstEventNanos + ragWatchConfig.getMaxDelay().toNanos());
+                    long waitNanos = deadline - System.nanoTime();
+                    key = waitNanos > 0 ? watchService.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+                    if (key == null) {
+                        flush();
+                        continue;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    firstEventNanos = System.nanoTime();
+                }
+                handle(key);
+                lastEventNanos = System.nanoTime();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 停机
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                log.warn("知识库文档目录事件溢出，重新扫描整个目录");
+                rescan();
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                // 新建的子目录需要单独监听，目录里已有的文件一并处理
+                registerTree(child, true);
+            } else if (!isIgnored(child)) {
+                pending.add(child);
+            }
+        }
+        if (!key.reset()) {
+            // 目录已被删除，其下入过库的文件都按删除处理
+            watchedDirs.remove(key);
+            if (dir != null) {
+                ragIngestionPipeline.indexedFiles().stream().filter(file -> file.startsWith(dir)).forEach(pending::add);
+            }
+        }
+    }
+
+    /**
+     * 按文件当前状态归类后增量重建索引
+     */
+    private void flush() {
+        List<Path> changed = new ArrayList<>();
+        List<Path> deleted = new ArrayList<>();
+        for (Path path : pending) {
+            if (Files.isRegularFile(path)) {
+                changed.add(path);
+            } else if (ragIngestionPipeline.isIndexed(path)) {
+                deleted.add(path);
+            }
+        }
+        pending.clear();
+        if (changed.isEmpty() && deleted.isEmpty()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        String result = "success";
+        try {
+            RagIngestionPipeline.IngestionReport report = ragIngestionPipeline.reindexFiles(changed, deleted);
+            log.info("知识库文件变更已重建索引，变更: {}, 删除: {}, 新段落: {}, 失败段落: {}, 耗时: {} ms",
+                    changed.size(), deleted.size(), report.storedSegments(), report.failedSegments(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        } catch (Exception e) {
+            result = "failure";
+            log.error("知识库文件变更重建索引失败，变更: {}, 删除: {}", changed, deleted, e);
+        } finally {
+            Timer.builder("ai.rag.reload")
+                    .description("知识库增量重建索引耗时")
+                    .tag("result", result)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 重新扫描：当前所有文件按变更处理，入过库但已不存在的按删除处理
+     */
+    private void rescan() {
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.filter(Files::isRegularFile).filter(path -> !isIgnored(path)).forEach(pending::add);
+        } catch (IOException e) {
+            log.warn("重新扫描知识库文档目录失败, error: {}", e.getMessage());
+        }
+        pending.addAll(ragIngestionPipeline.indexedFiles());
+    }
+
+    /**
+     * 递归监听目录
+     *
+     * @param collectFiles 是否把目录下已有的文件加入待处理
+     */
+    private void registerTree(Path dir, boolean collectFiles) {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) walk::iterator) {
+                if (Files.isDirectory(path)) {
+                    WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    watchedDirs.put(key, path);
+                } else if (collectFiles && Files.isRegularFile(path) && !isIgnored(path)) {
+                    pending.add(path);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("监听知识库文档目录失败: {}, error: {}", dir, e.getMessage());
+        }
+    }
+
+    /**
+     * 编辑器产生的隐藏文件、备份和临时文件不入库
+     */
+    private static boolean isIgnored(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(".") || name.endsWith("~") || name.endsWith(".swp") || name.endsWith(".tmp");
+    }
+}
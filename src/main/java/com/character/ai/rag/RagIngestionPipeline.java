@@ -0,0 +1,424 @@
+package com.character.ai.rag;
+
+import com.character.config.RagIngestionConfig;
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 知识库入库流水线：加载 → 切分 → 分批向量化 → 写入向量存储
+ * - 加载：按文件并行解析，所在目录名作为段落的 appName 元数据（分区依据），文件路径记为 source_file
+ * - 切分：使用传入的切分器，段落文本与之前一致时本地向量缓存仍能命中
+ * - 向量化：按 batchSize 分批，最多 parallelism 批同时进行；单批失败按指数退避重试，重试用尽后跳过该批并计为失败
+ * - 写入：启动入库时调用线程按批完成的先后串行写入，写完一批即可被检索；
+ *   增量重建索引时先完成全部向量化，再通过 {@link PartitionedEmbeddingStore#replace} 一次性替换旧段落
+ * - 段落同时写入 BM25 索引，与向量存储使用同一个段落 id；启动入库时向量化失败的段落只写入 BM25 索引
+ * 限流由向量模型自身负责（见 RateLimitedEmbeddingModel），这里只控制并发。
+ * 指标：
+ * - ai.rag.ingest.segments：按 result（stored / failed）统计段落数
+ * - ai.rag.ingest.batch：单批向量化耗时，按 result 区分
+ * - ai.rag.ingest.retries：重试次数
+ * - ai.rag.ingest.pending：已切分、尚未写入的段落数
+ */
+@Slf4j
+public class RagIngestionPipeline {
+
+    /**
+     * 段落来源文件的元数据
+     */
+    public static final String SOURCE_FILE = "source_file";
+
+    private final PartitionedEmbeddingStore embeddingStore;
+
+    private final Bm25Index bm25Index;
+
+    private final EmbeddingModel embeddingModel;
+
+    private final DocumentSplitter documentSplitter;
+
+    private final RagIngestionConfig ingestionConfig;
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 每个已入库文件（绝对路径字符串）当前的段落 id，增量重建索引时据此删除旧段落
+     */
+    private final Map<String, List<String>> fileSegments = new ConcurrentHashMap<>();
+
+    private final AtomicLong pendingSegments = new AtomicLong();
+
+    private final Counter storedCounter;
+
+    private final Counter failedCounter;
+
+    private final Counter retryCounter;
+
+    public RagIngestionPipeline(PartitionedEmbeddingStore embeddingStore, Bm25Index bm25Index,
+                                EmbeddingModel embeddingModel, DocumentSplitter documentSplitter,
+                                RagIngestionConfig ingestionConfig, MeterRegistry meterRegistry) {
+        this.embeddingStore = embeddingStore;
+        this.bm25Index = bm25Index;
+        this.embeddingModel = embeddingModel;
+        this.documentSplitter = documentSplitter;
+        this.ingestionConfig = ingestionConfig;
+        this.meterRegistry = meterRegistry;
+        this.storedCounter = meterRegistry.counter("ai.rag.ingest.segments", "result", "stored");
+        this.failedCounter = meterRegistry.counter("ai.rag.ingest.segments", "result", "failed");
+        this.retryCounter = meterRegistry.counter("ai.rag.ingest.retries");
+        Gauge.builder("ai.rag.ingest.pending", pendingSegments, AtomicLong::get)
+                .description("已切分、尚未写入的段落数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 入库目录（递归子目录）下的全部文件
+     */
+    public IngestionReport ingestDirectory(Path root) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).sorted().toList();
+        }
+        return ingestFiles(files);
+    }
+
+    /**
+     * 入库指定文件，向量化完成一批就写入一批
+     *
+     * @return 入库结果，包含每个文件写入的段落 id
+     */
+    public IngestionReport ingestFiles(Collection<Path> files) {
+        long startNanos = System.nanoTime();
+        Map<String, List<String>> idsBySource = sourceMap(files);
+        int[] stored = {0};
+        Staged staged = run(files, batch -> {
+            List<String> ids = embeddingStore.generateIds(batch.segments().size());
+            // 向量化失败的段落仍写入 BM25 索引，向量模型不可用时词法检索也能命中
+            bm25Index.addAll(ids, batch.segments());
+            collectIds(batch.segments(), ids, idsBySource);
+            if (batch.embeddings() != null) {
+                embeddingStore.addAll(ids, batch.embeddings(), batch.segments());
+                stored[0] += ids.size();
+                storedCounter.increment(ids.size());
+            }
+        });
+        idsBySource.forEach((source, ids) -> fileSegments.put(source, List.copyOf(ids)));
+        return new IngestionReport(staged.documents, staged.segments, stored[0], staged.segments - stored[0],
+                toPathMap(files, idsBySource), System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 增量重建索引：重新切分和向量化变更的文件，再原子地用新段落替换这些文件以及已删除文件的旧段落
+     * 解析失败或有段落向量化失败的文件保留旧段落，不参与替换
+     *
+     * @param changedFiles 新增或修改的文件
+     * @param deletedFiles 已删除的文件
+     * @return 入库结果，包含每个替换成功的文件的新段落 id
+     */
+    public IngestionReport reindexFiles(Collection<Path> changedFiles, Collection<Path> deletedFiles) {
+        long startNanos = System.nanoTime();
+        List<EmbeddedBatch> batches = new ArrayList<>();
+        Staged staged = run(changedFiles, batches::add);
+        // 按来源文件归集新段落，剔除失败的文件
+        Set<String> failedSources = new HashSet<>(staged.unloadedSources);
+        batches.stream()
+                .filter(batch -> batch.embeddings() == null)
+                .forEach(batch -> batch.segments().forEach(segment -> failedSources.add(sourceOf(segment))));
+        List<TextSegment> segments = new ArrayList<>();
+        List<Embedding> embeddings = new ArrayList<>();
+        for (EmbeddedBatch batch : batches) {
+            if (batch.embeddings() == null) {
+                continue;
+            }
+            for (int i = 0; i < batch.segments().size(); i++) {
+                if (!failedSources.contains(sourceOf(batch.segments().get(i)))) {
+                    segments.add(batch.segments().get(i));
+                    embeddings.add(batch.embeddings().get(i));
+                }
+            }
+        }
+        Map<String, List<String>> idsBySource = sourceMap(changedFiles);
+        failedSources.forEach(idsBySource::remove);
+        List<String> removeIds = new ArrayList<>();
+        for (String source : idsBySource.keySet()) {
+            removeIds.addAll(fileSegments.getOrDefault(source, List.of()));
+        }
+        for (Path file : deletedFiles) {
+            removeIds.addAll(fileSegments.getOrDefault(normalize(file).toString(), List.of()));
+        }
+        List<String> ids = embeddingStore.generateIds(segments.size());
+        embeddingStore.replace(removeIds, ids, embeddings, segments);
+        bm25Index.replace(removeIds, ids, segments);
+        collectIds(segments, ids, idsBySource);
+        storedCounter.increment(ids.size());
+        for (Path file : deletedFiles) {
+            fileSegments.remove(normalize(file).toString());
+        }
+        idsBySource.forEach((source, sourceIds) -> fileSegments.put(source, List.copyOf(sourceIds)));
+        if (!failedSources.isEmpty()) {
+            log.warn("以下知识库文件重建索引失败，保留旧段落: {}", failedSources);
+        }
+        return new IngestionReport(staged.documents, staged.segments, ids.size(), staged.segments - ids.size(),
+                toPathMap(changedFiles, idsBySource), System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 是否已入库过该文件
+     */
+    public boolean isIndexed(Path file) {
+        return fileSegments.containsKey(normalize(file).toString());
+    }
+
+    /**
+     * 已入库的文件
+     */
+    public List<Path> indexedFiles() {
+        return fileSegments.keySet().stream().map(Path::of).toList();
+    }
+
+    /**
+     * 依次执行加载、切分、向量化阶段，每批向量化完成后在调用线程上交给 sink
+     */
+    private Staged run(Collection<Path> files, Consumer<EmbeddedBatch> sink) {
+        long startNanos = System.nanoTime();
+        Semaphore permits = new Semaphore(Math.max(1, ingestionConfig.getParallelism()));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Document> documents = load(files, executor, permits);
+            List<TextSegment> segments = documentSplitter.splitAll(documents);
+            embed(segments, executor, permits, sink, startNanos);
+            Set<String> unloaded = new HashSet<>(sourceMap(files).keySet());
+            documents.forEach(document -> unloaded.remove(document.metadata().getString(SOURCE_FILE)));
+            return new Staged(documents.size(), segments.size(), unloaded);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("知识库入库被中断", e);
+        }
+    }
+
+    /**
+     * 加载阶段：并行解析文件，解析失败的文件跳过
+     */
+    private List<Document> load(Collection<Path> files, ExecutorService executor, Semaphore permits)
+            throws InterruptedException {
+        List<Future<Document>> futures = new ArrayList<>(files.size());
+        for (Path file : files) {
+            futures.add(executor.submit(() -> {
+                permits.acquire();
+                try {
+                    Document document = FileSystemDocumentLoader.loadDocument(file);
+                    Path parent = file.toAbsolutePath().getParent();
+                    if (parent != null && parent.getFileName() != null) {
+                        document.metadata().put(PartitionedEmbeddingStore.PARTITION_KEY, parent.getFileName().toString());
+                    }
+                    document.metadata().put(SOURCE_FILE, normalize(file).toString());
+                    return document;
+                } catch (Exception e) {
+                    log.warn("知识库文件解析失败，跳过: {}, error: {}", file, e.getMessage());
+                    return null;
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+        List<Document> documents = new ArrayList<>(files.size());
+        for (Future<Document> future : futures) {
+            Document document = join(future);
+            if (document != null) {
+                documents.add(document);
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * 向量化阶段：各批并行向量化，调用线程按完成顺序交给 sink，失败的批次也会交出（向量为 null）
+     */
+    private void embed(List<TextSegment> segments, ExecutorService executor, Semaphore permits,
+                       Consumer<EmbeddedBatch> sink, long startNanos) throws InterruptedException {
+        int batchSize = Math.max(1, ingestionConfig.getBatchSize());
+        CompletionService<EmbeddedBatch> completion = new ExecutorCompletionService<>(executor);
+        int batchCount = 0;
+        for (int from = 0; from < segments.size(); from += batchSize) {
+            List<TextSegment> batch = segments.subList(from, Math.min(segments.size(), from + batchSize));
+            completion.submit(() -> {
+                permits.acquire();
+                try {
+                    return embedWithRetry(batch);
+                } finally {
+                    permits.release();
+                }
+            });
+            batchCount++;
+        }
+        pendingSegments.addAndGet(segments.size());
+        int done = 0;
+        int nextReport = segments.size() / 10;
+        for (int i = 0; i < batchCount; i++) {
+            EmbeddedBatch batch = join(completion.take());
+            int size = batch.segments().size();
+            if (batch.embeddings() == null) {
+                failedCounter.increment(size);
+            }
+            try {
+                sink.accept(batch);
+            } finally {
+                pendingSegments.addAndGet(-size);
+            }
+            done += size;
+            if (done >= nextReport && done < segments.size()) {
+                log.info("知识库入库进度: {}/{} 段, {} 段/秒", done, segments.size(),
+                        String.format("%.1f", done / ((System.nanoTime() - startNanos) / 1e9)));
+                nextReport = done + Math.max(1, segments.size() / 10);
+            }
+        }
+    }
+
+    /**
+     * 向量化一批段落，失败时按指数退避重试，重试用尽返回空向量的结果
+     */
+    private EmbeddedBatch embedWithRetry(List<TextSegment> batch) throws InterruptedException {
+        long backoffMillis = ingestionConfig.getRetryBackoff().toMillis();
+        for (int attempt = 0; ; attempt++) {
+            long startNanos = System.nanoTime();
+            try {
+                List<Embedding> embeddings = embeddingModel.embedAll(batch).content();
+                if (embeddings.size() != batch.size()) {
+                    throw new IllegalStateException("向量数与段落数不一致: " + embeddings.size() + " != " + batch.size());
+                }
+                batchTimer("success").record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                return new EmbeddedBatch(batch, embeddings);
+            } catch (RuntimeException e) {
+                batchTimer("failure").record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                if (attempt >= ingestionConfig.getMaxRetries()) {
+                    log.error("知识库段落向量化失败，已重试 {} 次，跳过 {} 段, error: {}", attempt, batch.size(),
+                            e.getMessage());
+                    return new EmbeddedBatch(batch, null);
+                }
+                retryCounter.increment();
+                log.warn("知识库段落向量化失败，{} ms 后第 {} 次重试, error: {}", backoffMillis << attempt, attempt + 1,
+                        e.getMessage());
+                TimeUnit.MILLISECONDS.sleep(backoffMillis << attempt);
+            }
+        }
+    }
+
+    /**
+     * 每个文件（绝对路径字符串）对应一个空的段落 id 列表
+     * 段落元数据里只有路径字符串，按字符串归集后再对应回文件
+     */
+    private static Map<String, List<String>> sourceMap(Collection<Path> files) {
+        Map<String, List<String>> idsBySource = new LinkedHashMap<>();
+        for (Path file : files) {
+            idsBySource.put(normalize(file).toString(), new ArrayList<>());
+        }
+        return idsBySource;
+    }
+
+    private static Map<Path, List<String>> toPathMap(Collection<Path> files, Map<String, List<String>> idsBySource) {
+        Map<Path, List<String>> segmentIds = new LinkedHashMap<>();
+        for (Path file : files) {
+            List<String> ids = idsBySource.get(normalize(file).toString());
+            if (ids != null) {
+                segmentIds.put(normalize(file), ids);
+            }
+        }
+        return segmentIds;
+    }
+
+    private static void collectIds(List<TextSegment> segments, List<String> ids, Map<String, List<String>> idsBySource) {
+        for (int i = 0; i < segments.size(); i++) {
+            List<String> sourceIds = idsBySource.get(sourceOf(segments.get(i)));
+            if (sourceIds != null) {
+                sourceIds.add(ids.get(i));
+            }
+        }
+    }
+
+    private static String sourceOf(TextSegment segment) {
+        return segment.metadata().getString(SOURCE_FILE);
+    }
+
+    private Timer batchTimer(String result) {
+        return Timer.builder("ai.rag.ingest.batch")
+                .description("知识库单批向量化耗时")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static Path normalize(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+
+    private static <T> T join(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("知识库入库任务失败", e.getCause());
+        }
+    }
+
+    /**
+     * 一批段落及其向量，向量化失败时 embeddings 为 null
+     */
+    private record EmbeddedBatch(List<TextSegment> segments, List<Embedding> embeddings) {
+    }
+
+    /**
+     * 加载、切分、向量化阶段的统计
+     *
+     * @param unloadedSources 解析失败的文件
+     */
+    private record Staged(int documents, int segments, Set<String> unloadedSources) {
+    }
+
+    /**
+     * 入库结果
+     *
+     * @param documents      成功解析的文档数
+     * @param segments       切分出的段落数
+     * @param storedSegments 写入的段落数
+     * @param failedSegments 向量化失败、未写入向量存储的段落数
+     * @param segmentIds     每个文件（绝对路径）写入的段落 id
+     * @param elapsedNanos   耗时
+     */
+    public record IngestionReport(int documents, int segments, int storedSegments, int failedSegments,
+                                  Map<Path, List<String>> segmentIds, long elapsedNanos) {
+
+        /**
+         * 每秒写入的段落数
+         */
+        public double throughput() {
+            return elapsedNanos == 0 ? 0 : storedSegments / (elapsedNanos / 1e9);
+        }
+    }
+}
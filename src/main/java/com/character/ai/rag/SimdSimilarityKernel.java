@@ -0,0 +1,113 @@
+package com.character.ai.rag;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 基于 Vector API（jdk.incubator.vector）的实现，按 CPU 支持的最宽寄存器选择向量长度（AVX2 为 256 位，AVX-512 为 512 位）
+ * 运行时需要 --add-modules jdk.incubator.vector，缺少该模块或初始化失败时由 {@link VectorMath} 退回标量实现。
+ */
+public class SimdSimilarityKernel implements SimilarityKernel {
+
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+
+    /**
+     * 每次读入的 byte 向量，扩宽为 int 后分成 {@link #BYTE_PARTS} 段相乘累加
+     * 分量数与 int 向量相同时位宽只有 int 向量的四分之一，128 位平台上是 32 位，没有这种形状，因此最窄取 64 位
+     */
+    private static final VectorSpecies<Byte> BYTE_SPECIES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(Math.max(64, INT_SPECIES.length() * Byte.SIZE)));
+
+    private static final int BYTE_PARTS = BYTE_SPECIES.length() / INT_SPECIES.length();
+
+    /**
+     * 当前平台的向量寄存器位宽
+     */
+    public static int vectorBitSize() {
+        return FLOAT_SPECIES.vectorBitSize();
+    }
+
+    @Override
+    public String name() {
+        return "simd-" + vectorBitSize();
+    }
+
+    @Override
+    public float dot(float[] a, float[] b) {
+        int step = FLOAT_SPECIES.length();
+        FloatVector acc0 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector acc1 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector acc2 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector acc3 = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+        // 四路累加器，掩盖 FMA 的延迟
+        for (int bound = a.length - 4 * step; i <= bound; i += 4 * step) {
+            acc0 = FloatVector.fromArray(FLOAT_SPECIES, a, i).fma(FloatVector.fromArray(FLOAT_SPECIES, b, i), acc0);
+            acc1 = FloatVector.fromArray(FLOAT_SPECIES, a, i + step)
+                    .fma(FloatVector.fromArray(FLOAT_SPECIES, b, i + step), acc1);
+            acc2 = FloatVector.fromArray(FLOAT_SPECIES, a, i + 2 * step)
+                    .fma(FloatVector.fromArray(FLOAT_SPECIES, b, i + 2 * step), acc2);
+            acc3 = FloatVector.fromArray(FLOAT_SPECIES, a, i + 3 * step)
+                    .fma(FloatVector.fromArray(FLOAT_SPECIES, b, i + 3 * step), acc3);
+        }
+        for (int bound = FLOAT_SPECIES.loopBound(a.length); i < bound; i += step) {
+            acc0 = FloatVector.fromArray(FLOAT_SPECIES, a, i).fma(FloatVector.fromArray(FLOAT_SPECIES, b, i), acc0);
+        }
+        float sum = acc0.add(acc1).add(acc2.add(acc3)).reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float cosine(float[] a, float[] b) {
+        FloatVector dotAcc = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector normAAcc = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector normBAcc = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(a.length); i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, i);
+            FloatVector vb = FloatVector.fromArray(FLOAT_SPECIES, b, i);
+            dotAcc = va.fma(vb, dotAcc);
+            normAAcc = va.fma(va, normAAcc);
+            normBAcc = vb.fma(vb, normBAcc);
+        }
+        float dot = dotAcc.reduceLanes(VectorOperators.ADD);
+        float normA = normAAcc.reduceLanes(VectorOperators.ADD);
+        float normB = normBAcc.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? 0 : (float) (dot / Math.sqrt((double) normA * normB));
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int step = BYTE_SPECIES.length();
+        IntVector acc = IntVector.zero(INT_SPECIES);
+        int i = 0;
+        for (int bound = BYTE_SPECIES.loopBound(length); i < bound; i += step) {
+            ByteVector ba = ByteVector.fromArray(BYTE_SPECIES, a, aOffset + i);
+            ByteVector bb = ByteVector.fromArray(BYTE_SPECIES, b, bOffset + i);
+            for (int part = 0; part < BYTE_PARTS; part++) {
+                IntVector va = (IntVector) ba.convertShape(VectorOperators.B2I, INT_SPECIES, part);
+                IntVector vb = (IntVector) bb.convertShape(VectorOperators.B2I, INT_SPECIES, part);
+                acc = acc.add(va.mul(vb));
+            }
+        }
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,27 @@
+package com.character.ai.rag;
+
+/**
+ * 向量相似度计算内核
+ */
+public interface SimilarityKernel {
+
+    /**
+     * 内核名称，用于日志和基准输出
+     */
+    String name();
+
+    /**
+     * 点积
+     */
+    float dot(float[] a, float[] b);
+
+    /**
+     * 余弦相似度，任一向量为零向量时返回 0
+     */
+    float cosine(float[] a, float[] b);
+
+    /**
+     * int8 点积，a 与 b 分别从给定偏移开始取 length 个分量
+     */
+    int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+}
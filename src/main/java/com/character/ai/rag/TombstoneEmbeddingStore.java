@@ -0,0 +1,29 @@
+package com.character.ai.rag;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.util.List;
+
+/**
+ * 删除只打墓碑标记的向量存储，被删除的向量仍占用内存并参与扫描
+ * 墓碑过多时由 {@link PartitionedEmbeddingStore} 用有效向量重建一个新存储替换
+ */
+public interface TombstoneEmbeddingStore extends EmbeddingStore<TextSegment> {
+
+    /**
+     * 有效（未删除）的段落数
+     */
+    int size();
+
+    /**
+     * 已删除但仍占用空间的段落数
+     */
+    int deletedCount();
+
+    /**
+     * 全部有效段落，得分固定为 1，用于重建
+     */
+    List<EmbeddingMatch<TextSegment>> liveEntries();
+}
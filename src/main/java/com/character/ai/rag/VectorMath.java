@@ -0,0 +1,98 @@
+package com.character.ai.rag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+
+/**
+ * 向量检索用到的基础运算
+ * 相似度计算委托给 {@link SimilarityKernel}：Vector API 可用且 CPU 支持至少 128 位向量时使用 SIMD 实现，否则使用标量实现。
+ * 可以通过 -Dai.rag.simd=false 强制使用标量实现。
+ */
+@Slf4j
+public final class VectorMath {
+
+    private static final SimilarityKernel KERNEL = loadKernel();
+
+    private VectorMath() {
+    }
+
+    /**
+     * 当前使用的相似度内核
+     */
+    public static SimilarityKernel kernel() {
+        return KERNEL;
+    }
+
+    /**
+     * 点积
+     */
+    public static float dot(float[] a, float[] b) {
+        return KERNEL.dot(a, b);
+    }
+
+    /**
+     * 余弦相似度
+     */
+    public static float cosine(float[] a, float[] b) {
+        return KERNEL.cosine(a, b);
+    }
+
+    /**
+     * int8 点积，a 与 b 分别从给定偏移开始取 length 个分量
+     */
+    public static int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        return KERNEL.dot(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * 对称量化为 int8，写入 codes，返回缩放系数（原值约等于 code * scale）
+     */
+    public static float quantize(float[] vector, byte[] codes) {
+        float max = 0;
+        for (float value : vector) {
+            max = Math.max(max, Math.abs(value));
+        }
+        if (max == 0) {
+            Arrays.fill(codes, (byte) 0);
+            return 0;
+        }
+        float scale = max / 127;
+        for (int i = 0; i < vector.length; i++) {
+            codes[i] = (byte) Math.round(vector[i] / scale);
+        }
+        return scale;
+    }
+
+    /**
+     * 返回归一化后的副本，零向量原样复制
+     */
+    public static float[] normalize(float[] vector) {
+        float norm = (float) Math.sqrt(dot(vector, vector));
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] / norm;
+        }
+        return normalized;
+    }
+
+    private static SimilarityKernel loadKernel() {
+        if (Boolean.parseBoolean(System.getProperty("ai.rag.simd", "true"))) {
+            try {
+                if (SimdSimilarityKernel.vectorBitSize() >= 128) {
+                    return new SimdSimilarityKernel();
+                }
+            } catch (NoClassDefFoundError e) {
+                log.info("Vector API 不可用（启动参数缺少 --add-modules jdk.incubator.vector），使用标量相似度计算, error: {}",
+                        e.getMessage());
+            } catch (LinkageError | RuntimeException e) {
+                // 模块已加载但 SIMD 内核初始化失败（如当前平台不支持所需的向量形状），记录真实原因
+                log.warn("SIMD 相似度内核初始化失败，使用标量相似度计算", e);
+            }
+        }
+        return new ScalarSimilarityKernel();
+    }
+}
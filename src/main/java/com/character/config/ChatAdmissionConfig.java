@@ -0,0 +1,69 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 大模型调用准入配置（全局并发上限 + 按应用/用户公平排队）
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.chat.admission")
+@Data
+public class ChatAdmissionConfig {
+
+    /**
+     * 是否开启准入控制
+     */
+    private boolean enabled = true;
+
+    /**
+     * 全局同时进行的生成数上限
+     */
+    private int maxConcurrent = 32;
+
+    /**
+     * 单个应用同时进行的生成数上限（舱壁隔离）
+     */
+    private int maxConcurrentPerApp = 16;
+
+    /**
+     * 单个用户同时进行的生成数上限
+     */
+    private int maxConcurrentPerUser = 2;
+
+    /**
+     * 全局排队上限，超出直接返回繁忙
+     */
+    private int maxQueued = 512;
+
+    /**
+     * 单个用户排队上限，超出直接返回繁忙
+     */
+    private int maxQueuedPerUser = 4;
+
+    /**
+     * 排队超时时间
+     */
+    private Duration queueTimeout = Duration.ofSeconds(10);
+
+    /**
+     * 应用权重（appId -> 权重），未配置的应用权重为 1
+     */
+    private Map<Long, Integer> appWeights = new HashMap<>();
+
+    /**
+     * 为语音对话预留的名额，文字对话只能使用其余名额
+     */
+    private int reservedVoiceSlots = 4;
+
+    /**
+     * 语音对话的领先时间：文字请求按“入队时间 + 该值”与语音请求比较先后，
+     * 语音优先，但文字请求等待超过该值后会排到新来的语音请求前面，不会被饿死
+     */
+    private Duration voiceHeadStart = Duration.ofSeconds(2);
+}
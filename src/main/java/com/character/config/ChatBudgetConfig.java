@@ -0,0 +1,47 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 单轮回复长度预算配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.chat.budget")
+@Data
+public class ChatBudgetConfig {
+
+    /**
+     * 是否开启回复长度预算
+     */
+    private boolean enabled = true;
+
+    /**
+     * 默认字符预算
+     */
+    private int maxChars = 120;
+
+    /**
+     * 默认 token 预算（按流式分片数计，兼容接口通常一个分片对应一个 token）
+     */
+    private int maxTokens = 200;
+
+    /**
+     * 超出预算后为了停在句子边界最多再放行的字符数，超过后直接截断
+     */
+    private int sentenceGraceChars = 40;
+
+    /**
+     * 按应用覆盖字符预算，key 为 appId
+     */
+    private Map<Long, Integer> appMaxChars = new HashMap<>();
+
+    /**
+     * 按应用覆盖 token 预算，key 为 appId
+     */
+    private Map<Long, Integer> appMaxTokens = new HashMap<>();
+}
@@ -0,0 +1,24 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 首轮对话合并配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.chat.coalesce")
+@Data
+public class ChatCoalesceConfig {
+
+    /**
+     * 是否开启相同首轮提问的合并生成
+     */
+    private boolean enabled = false;
+
+    /**
+     * 参与合并的消息最大长度（归一化后），过长的消息几乎不会重复
+     */
+    private int maxMessageLength = 64;
+}
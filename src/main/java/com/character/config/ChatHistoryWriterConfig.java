@@ -0,0 +1,61 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 对话历史延迟批量写入配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.chat.history-writer")
+@Data
+public class ChatHistoryWriterConfig {
+
+    /**
+     * 等待写入的队列容量，队列满时丢弃并记录错误
+     */
+    private int queueCapacity = 10000;
+
+    /**
+     * 攒满多少条立即写入一批
+     */
+    private int batchSize = 200;
+
+    /**
+     * 攒批最长等待时间，到时间即使不满一批也写入
+     */
+    private Duration flushInterval = Duration.ofMillis(100);
+
+    /**
+     * 写入失败后的最大重试次数
+     */
+    private int maxRetries = 3;
+
+    /**
+     * 重试间隔，第 n 次重试等待 n 倍间隔
+     */
+    private Duration retryBackoff = Duration.ofMillis(200);
+
+    /**
+     * 停机时等待队列写完的最长时间
+     */
+    private Duration shutdownTimeout = Duration.ofSeconds(10);
+
+    /**
+     * 是否开启本地预写日志：入队前先追加到本地文件，写库成功后删除，进程异常退出后启动时重放
+     */
+    private boolean walEnabled = false;
+
+    /**
+     * 本地预写日志目录
+     */
+    private String walDir = "data/chat-history-wal";
+
+    /**
+     * 单个日志分段最多记录多少条，写满后切换到新分段
+     */
+    private int walSegmentMaxEntries = 5000;
+}
@@ -0,0 +1,62 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 对话记忆与 AI 服务实例缓存配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.chat.memory")
+@Data
+public class ChatMemoryConfig {
+
+    /**
+     * 默认记忆窗口大小（消息条数）
+     */
+    private int maxMessages = 25;
+
+    /**
+     * 按应用覆盖记忆窗口大小，key 为 appId
+     */
+    private Map<Long, Integer> appMaxMessages = new HashMap<>();
+
+    /**
+     * 记忆缓存的总权重上限，每个会话的权重为其记忆窗口大小
+     * 默认约可容纳 5 万个窗口为 25 的会话
+     */
+    private long cacheMaxWeight = 1_250_000;
+
+    /**
+     * 会话记忆多久未访问后移出缓存，应小于 Redis 中记忆的过期时间
+     */
+    private Duration expireAfterAccess = Duration.ofMinutes(30);
+
+    /**
+     * 最多缓存多少个应用的 AI 服务实例
+     */
+    private long maxServices = 1000;
+
+    /**
+     * AI 服务实例多久未访问后移出缓存
+     */
+    private Duration serviceExpireAfterAccess = Duration.ofMinutes(30);
+
+    /**
+     * 应用人设缓存写入超过该时长后，下次访问时在后台比对应用的编辑时间，变化则刷新人设
+     * 即使错过了失效广播，人设和依赖它的 AI 服务实例最多陈旧这么久
+     */
+    private Duration personaRefreshAfterWrite = Duration.ofMinutes(1);
+
+    /**
+     * 应用的记忆窗口大小
+     */
+    public int maxMessagesOf(long appId) {
+        return appMaxMessages.getOrDefault(appId, maxMessages);
+    }
+}
@@ -0,0 +1,51 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 对话流断线续传配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.chat.resume")
+@Data
+public class ChatResumeConfig {
+
+    /**
+     * 是否开启断线续传
+     */
+    private boolean enabled = true;
+
+    /**
+     * 每轮对话缓冲在 Redis 中的保留时间
+     */
+    private Duration ttl = Duration.ofMinutes(2);
+
+    /**
+     * 每轮对话最多缓冲的帧数
+     */
+    private int maxFrames = 1024;
+
+    /**
+     * 每轮对话最多缓冲的字符数
+     */
+    private int maxChars = 16 * 1024;
+
+    /**
+     * 续传时轮询缓冲的间隔
+     */
+    private Duration pollInterval = Duration.ofMillis(200);
+
+    /**
+     * 客户端断开后等待续传的时间，期间没有续传请求则中断生成、释放生成名额
+     */
+    private Duration abandonGrace = Duration.ofSeconds(10);
+
+    /**
+     * 发给当前连接、尚未被取走的帧数上限，客户端接收过慢超出时断开当前连接，由续传补齐
+     */
+    private int liveBufferFrames = 256;
+}
@@ -0,0 +1,27 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 对话 SSE 推送配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.chat.sse")
+@Data
+public class ChatSseConfig {
+
+    /**
+     * 合并窗口时间，窗口内的 token 合并为一帧推送；为 0 表示关闭合并（包括按字节数合并），逐个 token 推送
+     * 只按字节数合并而没有时间窗口时，不足上限的内容要等到下一个 token 才能发出，因此不单独提供
+     */
+    private Duration flushInterval = Duration.ofMillis(20);
+
+    /**
+     * 单帧最大字节数（UTF-8），累计达到后立即推送
+     */
+    private int maxFrameBytes = 64;
+}
@@ -0,0 +1,43 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 对话 token 用量统计与配额配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.chat.usage")
+@Data
+public class ChatUsageConfig {
+
+    /**
+     * 是否开启用量统计
+     */
+    private boolean enabled = true;
+
+    /**
+     * 用户每日 token 配额，0 表示不限
+     */
+    private long dailyTokenQuota = 200000;
+
+    /**
+     * 按用户覆盖每日 token 配额，key 为 userId
+     */
+    private Map<Long, Long> userDailyTokenQuotas = new HashMap<>();
+
+    /**
+     * 用量批量写库间隔
+     */
+    private Duration flushInterval = Duration.ofSeconds(10);
+
+    /**
+     * 单次批量写库的最大行数
+     */
+    private int flushBatchSize = 500;
+}
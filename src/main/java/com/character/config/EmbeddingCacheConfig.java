@@ -0,0 +1,24 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 知识库向量本地缓存配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.rag.embedding-cache")
+@Data
+public class EmbeddingCacheConfig {
+
+    /**
+     * 是否开启本地向量缓存，关闭后每次启动都重新计算全部段落的向量
+     */
+    private boolean enabled = true;
+
+    /**
+     * 缓存目录，每个向量模型一个文件
+     */
+    private String dir = "data/embedding-cache";
+}
@@ -0,0 +1,34 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 知识库 HNSW 向量索引配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.rag.hnsw")
+@Data
+public class HnswConfig {
+
+    /**
+     * 是否使用 HNSW 索引，关闭后每个分区退回暴力扫描的内存存储
+     */
+    private boolean enabled = true;
+
+    /**
+     * 每层每个节点的邻居数上限，第 0 层为其两倍
+     */
+    private int m = 16;
+
+    /**
+     * 建图时的候选集大小
+     */
+    private int efConstruction = 200;
+
+    /**
+     * 检索时的候选集大小，越大召回越高、延迟越大
+     */
+    private int efSearch = 64;
+}
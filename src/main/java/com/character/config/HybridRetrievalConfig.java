@@ -0,0 +1,66 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 混合检索配置：BM25 词法检索与向量检索并行，按倒数排名融合（RRF）
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.rag.hybrid")
+@Data
+public class HybridRetrievalConfig {
+
+    /**
+     * 是否开启混合检索，关闭时只做向量检索
+     */
+    private boolean enabled = true;
+
+    /**
+     * 只做 BM25 词法检索，不调用向量模型
+     */
+    private boolean lexicalOnly = false;
+
+    /**
+     * 最终返回给模型的段落数
+     */
+    private int maxResults = 3;
+
+    /**
+     * 每路检索参与融合的候选段落数
+     */
+    private int candidates = 10;
+
+    /**
+     * RRF 常数 k，段落融合得分为各路 1 / (k + 排名) 之和，越大排名靠后的段落影响越大
+     */
+    private int rrfK = 60;
+
+    /**
+     * BM25 词频饱和参数
+     */
+    private double k1 = 1.2;
+
+    /**
+     * BM25 文档长度归一化程度
+     */
+    private double b = 0.75;
+
+    /**
+     * 向量检索（含提问向量化）超过该时长未返回时，只用 BM25 结果
+     */
+    private Duration vectorTimeout = Duration.ofSeconds(2);
+
+    /**
+     * 向量检索连续失败（含超时）达到该次数后暂停调用向量模型，只用 BM25 结果
+     */
+    private int vectorFailureThreshold = 3;
+
+    /**
+     * 暂停调用向量模型的时长，到期后放行请求试探是否恢复
+     */
+    private Duration vectorPauseDuration = Duration.ofSeconds(30);
+}
@@ -0,0 +1,97 @@
+package com.character.config;
+
+import com.character.ai.mock.MockModelServer;
+import lombok.Data;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.time.Duration;
+
+/**
+ * 本地模拟模型服务配置，仅在 mock 环境下生效
+ * 启动方式：--spring.profiles.active=local,mock，对话模型和向量模型都会指向本地模拟服务
+ */
+@Configuration
+@Profile("mock")
+@ConfigurationProperties(prefix = "ai.mock")
+@Data
+public class MockModelConfig {
+
+    /**
+     * 监听端口
+     */
+    private int port = 18080;
+
+    /**
+     * 每轮回复的 token 数（请求里的 max_tokens 更小时以请求为准）
+     */
+    private int replyTokens = 40;
+
+    /**
+     * 首 token 延迟分布
+     */
+    private Delay ttft = new Delay(DelayType.LOGNORMAL, Duration.ofMillis(400), Duration.ofMillis(150));
+
+    /**
+     * token 间隔分布
+     */
+    private Delay interToken = new Delay(DelayType.NORMAL, Duration.ofMillis(30), Duration.ofMillis(10));
+
+    /**
+     * 向量维度（请求里指定 dimensions 时以请求为准）
+     */
+    private int embeddingDimension = 1024;
+
+    /**
+     * 向量接口的固定延迟
+     */
+    private Duration embeddingLatency = Duration.ofMillis(20);
+
+    /**
+     * 延迟分布：FIXED 固定为均值；UNIFORM 在均值上下 spread 内均匀分布；
+     * NORMAL 为正态分布，spread 为标准差；LOGNORMAL 为对数正态分布（长尾），均值和标准差为 mean、spread
+     */
+    @Data
+    public static class Delay {
+        private DelayType type = DelayType.FIXED;
+
+        private Duration mean = Duration.ZERO;
+
+        private Duration spread = Duration.ZERO;
+
+        public Delay() {
+        }
+
+        public Delay(DelayType type, Duration mean, Duration spread) {
+            this.type = type;
+            this.mean = mean;
+            this.spread = spread;
+        }
+    }
+
+    public enum DelayType {
+        FIXED, UNIFORM, NORMAL, LOGNORMAL
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public MockModelServer mockModelServer() {
+        return new MockModelServer(this);
+    }
+
+    /**
+     * 启动时文档向量化会调用向量模型，模拟服务必须先于模型相关的 Bean 启动
+     */
+    @Bean
+    public static BeanFactoryPostProcessor mockModelServerStartsFirst() {
+        return beanFactory -> {
+            for (String beanName : new String[]{"embeddingModel", "chatEndpointRegistry"}) {
+                if (beanFactory.containsBeanDefinition(beanName)) {
+                    beanFactory.getBeanDefinition(beanName).setDependsOn("mockModelServer");
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,34 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 知识库 int8 量化堆外向量存储配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.rag.quantized")
+@Data
+public class QuantizedStoreConfig {
+
+    /**
+     * 是否使用量化存储，开启后优先于 HNSW 索引
+     */
+    private boolean enabled = false;
+
+    /**
+     * 参与全精度重排的候选数相对 topK 的倍数，为 1 时只按量化分数召回
+     */
+    private int rerankFactor = 4;
+
+    /**
+     * 每块容纳的向量数，堆外内存按块分配
+     */
+    private int chunkSize = 4096;
+
+    /**
+     * 全精度向量映射文件所在目录，文件打开后即删除，不会残留
+     */
+    private String dir = "data/vector-store";
+}
@@ -0,0 +1,31 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 提问向量缓存配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.rag.query-cache")
+@Data
+public class QueryEmbeddingCacheConfig {
+
+    /**
+     * 是否缓存提问向量，关闭后每次检索都调用向量模型
+     */
+    private boolean enabled = true;
+
+    /**
+     * 最多缓存的提问数
+     */
+    private long maxSize = 10_000;
+
+    /**
+     * 写入后多久过期
+     */
+    private Duration expireAfterWrite = Duration.ofHours(6);
+}
@@ -1,68 +1,170 @@
 package com.character.config;
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import com.character.ai.model.CachingEmbeddingModel;
+import com.character.ai.model.EmbeddingDiskCache;
+import com.character.ai.model.OkHttpModelClientBuilder;
+import com.character.ai.model.RateLimitedEmbeddingModel;
+import com.character.ai.model.RequestRateLimiter;
+import com.character.ai.rag.Bm25Index;
+import com.character.ai.rag.HnswEmbeddingStore;
+import com.character.ai.rag.PartitionedEmbeddingStore;
+import com.character.ai.rag.QuantizedEmbeddingStore;
+import com.character.ai.rag.RagIngestionPipeline;
+import com.character.ai.rag.VectorMath;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.openai.OpenAiEmbeddingModel;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.spi.ServiceHelper;
+import dev.langchain4j.spi.data.document.splitter.DocumentSplitterFactory;
 import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Configuration
+@Slf4j
 public class RAGConfig {
 
     @Value("${langchain4j.open-ai.text-chat-model.api-key}")
     private String openAiApiKey;
 
+    @Value("${langchain4j.open-ai.embedding-model.base-url:https://dashscope.aliyuncs.com/compatible-mode/v1}")
+    private String embeddingBaseUrl;
+
+    @Value("${langchain4j.open-ai.embedding-model.model-name:text-embedding-v4}")
+    private String embeddingModelName;
+
+    /**
+     * 百炼向量接口单次最多 10 段
+     */
+    private static final int EMBEDDING_BATCH_LIMIT = 10;
+
     @Bean
-    public EmbeddingModel embeddingModel() {
+    public EmbeddingModel embeddingModel(OkHttpClient modelHttpClient) {
         return OpenAiEmbeddingModel.builder()
+                .httpClientBuilder(new OkHttpModelClientBuilder(modelHttpClient)) // 与对话模型共用连接池
                 .apiKey(openAiApiKey)               // 从配置文件读取
-                .baseUrl("https://dashscope.aliyuncs.com/compatible-mode/v1") // 可选
-                .modelName("text-embedding-v4") // 你的模型名
+                .baseUrl(embeddingBaseUrl) // 可选，mock 环境下指向本地模拟服务
+                .modelName(embeddingModelName) // 你的模型名
+                .maxSegmentsPerBatch(EMBEDDING_BATCH_LIMIT)
                 .build();
     }
 
 
     /**
-     * 加载本地文档（递归子目录）并返回 List<Document>
+     * 按应用分区的内存向量存储，每个分区默认使用 HNSW 索引，也可切换为 int8 量化存储
+     * 段落由入库流水线写入
      */
     @Bean
-    public List<Document> documents() {
-        Path projectRoot = Paths.get("").toAbsolutePath(); // 当前项目根目录
-        Path docPath = projectRoot.resolve("src/main/resources/ragDocuments");
-        return FileSystemDocumentLoader.loadDocumentsRecursively(docPath.toString());
+    public PartitionedEmbeddingStore embeddingStore(HnswConfig hnswConfig, QuantizedStoreConfig quantizedStoreConfig,
+                                                    RagWatchConfig ragWatchConfig, MeterRegistry meterRegistry) {
+        // 按 appName 分区，检索只扫描目标应用的分区
+        Supplier<EmbeddingStore<TextSegment>> partitionFactory;
+        if (quantizedStoreConfig.isEnabled()) {
+            partitionFactory = () -> new QuantizedEmbeddingStore(Paths.get(quantizedStoreConfig.getDir()),
+                    quantizedStoreConfig.getChunkSize(), quantizedStoreConfig.getRerankFactor());
+        } else if (hnswConfig.isEnabled()) {
+            partitionFactory = () -> new HnswEmbeddingStore(hnswConfig.getM(), hnswConfig.getEfConstruction(),
+                    hnswConfig.getEfSearch());
+        } else {
+            partitionFactory = InMemoryEmbeddingStore::new;
+        }
+        return new PartitionedEmbeddingStore(partitionFactory, ragWatchConfig.getCompactRatio(), meterRegistry);
     }
 
-
-
     /**
-     * 内存向量存储
+     * 知识库段落的 BM25 倒排索引，由入库流水线与向量存储同步写入
      */
     @Bean
-    public InMemoryEmbeddingStore<TextSegment> embeddingStore(List<Document> documents) {
-        documents.forEach(doc -> {
-                    String filePath = doc.metadata().getString("file_path");
-                    if (filePath != null) {
-                        Path path = Paths.get(filePath);
-                        String appName = path.getParent().getFileName().toString(); // 这里就是中文
-                        doc.metadata().put("appName", appName);
-                    }
-                });
-        // 创建内存向量库
-        InMemoryEmbeddingStore<TextSegment> store = new InMemoryEmbeddingStore<>();
-        // 把文档切分并生成 embedding 存入内存
-        EmbeddingStoreIngestor.ingest(documents, store);
-        return store;
+    public Bm25Index bm25Index(HybridRetrievalConfig hybridRetrievalConfig, MeterRegistry meterRegistry) {
+        return new Bm25Index(hybridRetrievalConfig.getK1(), hybridRetrievalConfig.getB(), meterRegistry);
     }
 
+    /**
+     * 知识库入库流水线，创建时入库文档目录下的全部文件
+     * 入库与检索使用同一个向量模型，入库时外层是本地向量缓存，只有新增或修改过的段落才会经过限流调用向量模型
+     */
+    @Bean
+    public RagIngestionPipeline ragIngestionPipeline(PartitionedEmbeddingStore embeddingStore,
+                                                     Bm25Index bm25Index,
+                                                     EmbeddingModel embeddingModel,
+                                                     EmbeddingCacheConfig embeddingCacheConfig,
+                                                     RagIngestionConfig ragIngestionConfig,
+                                                     MeterRegistry meterRegistry) {
+        EmbeddingModel ingestModel = new RateLimitedEmbeddingModel(embeddingModel,
+                new RequestRateLimiter(ragIngestionConfig.getRequestsPerSecond()), EMBEDDING_BATCH_LIMIT);
+        CachingEmbeddingModel cachingModel = null;
+        EmbeddingDiskCache diskCache = null;
+        if (embeddingCacheConfig.isEnabled()) {
+            try {
+                diskCache = new EmbeddingDiskCache(Paths.get(embeddingCacheConfig.getDir()), embeddingModelName);
+                cachingModel = new CachingEmbeddingModel(ingestModel, diskCache);
+                ingestModel = cachingModel;
+            } catch (IOException e) {
+                log.warn("打开向量缓存失败，本次启动不使用缓存，error: {}", e.getMessage());
+            }
+        }
+        RagIngestionPipeline pipeline = new RagIngestionPipeline(embeddingStore, bm25Index, ingestModel,
+                loadDocumentSplitter(), ragIngestionConfig, meterRegistry);
+        Path docPath = Paths.get(ragIngestionConfig.getDocDir()).toAbsolutePath();
+        if (!Files.isDirectory(docPath)) {
+            log.warn("知识库文档目录不存在，跳过入库: {}", docPath);
+            return pipeline;
+        }
+        RagIngestionPipeline.IngestionReport report;
+        try {
+            report = pipeline.ingestDirectory(docPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取知识库文档目录失败: " + docPath, e);
+        }
+        long misses = cachingModel == null ? -1 : cachingModel.getMisses();
+        Timer.builder("ai.rag.ingest")
+                .description("启动时知识库入库耗时")
+                .tag("cache", misses == 0 ? "warm" : "cold")
+                .register(meterRegistry)
+                .record(report.elapsedNanos(), TimeUnit.NANOSECONDS);
+        log.info("知识库分区段落数: {}, BM25 索引段落数: {}, 相似度内核: {}", embeddingStore.partitionSizes(),
+                bm25Index.size(), VectorMath.kernel().name());
+        log.info("知识库入库完成，文档数: {}, 段落数: {}, 失败: {}, 缓存命中: {}, 新计算: {}, 耗时: {} ms, {} 段/秒",
+                report.documents(), report.segments(), report.failedSegments(),
+                cachingModel == null ? 0 : cachingModel.getHits(), cachingModel == null ? "未开启缓存" : misses,
+                TimeUnit.NANOSECONDS.toMillis(report.elapsedNanos()), String.format("%.1f", report.throughput()));
+        // 全部段落入库成功后，启动时没用到的缓存条目对应的文本已被修改或删除，清理掉
+        if (diskCache != null && report.failedSegments() == 0) {
+            try {
+                diskCache.compact();
+            } catch (IOException e) {
+                log.warn("清理向量缓存失败, error: {}", e.getMessage());
+            }
+        }
+        return pipeline;
+    }
 
+    /**
+     * 与 EmbeddingStoreIngestor 相同，优先使用 SPI 提供的切分器，保证段落文本与之前一致
+     */
+    private static DocumentSplitter loadDocumentSplitter() {
+        Collection<DocumentSplitterFactory> factories = ServiceHelper.loadFactories(DocumentSplitterFactory.class);
+        if (factories.isEmpty()) {
+            return DocumentSplitters.recursive(300, 30);
+        }
+        return factories.iterator().next().create();
+    }
 }
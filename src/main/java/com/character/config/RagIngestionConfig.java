@@ -0,0 +1,46 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 知识库入库流水线配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.rag.ingest")
+@Data
+public class RagIngestionConfig {
+
+    /**
+     * 知识库文档目录，每个子目录对应一个应用（目录名即应用名）
+     */
+    private String docDir = "src/main/resources/ragDocuments";
+
+    /**
+     * 每次向量化请求的段落数，不超过向量接口的单次上限
+     */
+    private int batchSize = 10;
+
+    /**
+     * 同时进行的文档加载和向量化请求数
+     */
+    private int parallelism = 4;
+
+    /**
+     * 向量接口每秒最多请求数，不大于 0 时不限流
+     */
+    private double requestsPerSecond = 10;
+
+    /**
+     * 单批向量化失败后的最大重试次数
+     */
+    private int maxRetries = 3;
+
+    /**
+     * 首次重试前的等待时间，之后每次翻倍
+     */
+    private Duration retryBackoff = Duration.ofSeconds(1);
+}
@@ -0,0 +1,36 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 知识库文档热更新配置
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.rag.watch")
+@Data
+public class RagWatchConfig {
+
+    /**
+     * 是否监听知识库文档目录，文件变更后增量重建索引
+     */
+    private boolean enabled = true;
+
+    /**
+     * 最后一次变更后静默多久才重建索引，连续保存只触发一次
+     */
+    private Duration debounce = Duration.ofSeconds(2);
+
+    /**
+     * 变更持续不断时，距第一次变更最多等待多久就重建一次
+     */
+    private Duration maxDelay = Duration.ofSeconds(30);
+
+    /**
+     * 重建索引后旧段落只打墓碑，墓碑占分区向量数的比例超过该值时重建分区，不大于 0 时不重建
+     */
+    private double compactRatio = 0.2;
+}
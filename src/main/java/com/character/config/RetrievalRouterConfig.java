@@ -0,0 +1,38 @@
+package com.character.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 知识库检索路由配置：寒暄、语气词等无需检索的消息直接跳过 RAG
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.rag.router")
+@Data
+public class RetrievalRouterConfig {
+
+    /**
+     * 是否开启检索跳过，关闭后每条消息都检索
+     */
+    private boolean enabled = true;
+
+    /**
+     * 去掉标点、符号和空白后不足该长度的消息跳过检索
+     */
+    private int minLength = 2;
+
+    /**
+     * 去掉标点、符号和空白并转小写后整句匹配任一正则的消息跳过检索
+     */
+    private List<String> skipPatterns = new ArrayList<>(List.of(
+            "(嗯|恩|哦|噢|喔|啊|呀|哇|额|呃|唔)+",
+            "(哈|呵|嘿|嘻)+",
+            "(好|好的|好吧|行|可以|ok|okay|收到|知道了|明白了?|懂了|是的?|对的?|没错|没事)(呀|啊|哦|吧|啦)?",
+            "(谢谢|多谢|感谢|谢啦|thanks|thx)(你|您)?(啦|了)?",
+            "(你好|您好|hi|hello|hey|在吗|在不在|早|早安|早上好|午安|晚安|拜拜|再见|bye)(呀|啊|哦)?"
+    ));
+}
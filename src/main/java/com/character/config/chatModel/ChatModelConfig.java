@@ -1,13 +1,25 @@
 package com.character.config.chatModel;
 
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.StrUtil;
+import com.character.ai.model.ChatEndpoint;
+import com.character.ai.model.CancellableHttpClientBuilder;
+import com.character.ai.model.ChatEndpointRegistry;
+import com.character.ai.model.OkHttpModelClientBuilder;
+import com.character.ai.model.RoutingStreamingChatModel;
 import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Data;
+import okhttp3.OkHttpClient;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 @Data
 @ConfigurationProperties(prefix = "langchain4j.open-ai.chat-model")
@@ -26,10 +38,57 @@ public class ChatModelConfig {
 
     private Boolean logResponses = false;
 
+    /**
+     * 额外的模型端点（如其他地域或其他供应商），未配置的字段沿用上面的默认值
+     */
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    @Data
+    public static class Endpoint {
+        private String name;
+
+        private String baseUrl;
+
+        private String apiKey;
+
+        private String modelName;
+    }
+
+    /**
+     * 端点注册表为单例，各端点的模型客户端和延迟统计在所有对话间共享
+     */
+    @Bean
+    public ChatEndpointRegistry chatEndpointRegistry(ChatRoutingConfig chatRoutingConfig, MeterRegistry meterRegistry,
+                                                     OkHttpClient modelHttpClient) {
+        List<ChatEndpoint> chatEndpoints = new ArrayList<>();
+        chatEndpoints.add(new ChatEndpoint("default",
+                buildModel(modelHttpClient, baseUrl, apiKey, modelName), chatRoutingConfig));
+        if (CollUtil.isNotEmpty(endpoints)) {
+            for (int i = 0; i < endpoints.size(); i++) {
+                Endpoint endpoint = endpoints.get(i);
+                String name = StrUtil.blankToDefault(endpoint.getName(), "endpoint-" + (i + 1));
+                StreamingChatModel model = buildModel(modelHttpClient,
+                        StrUtil.blankToDefault(endpoint.getBaseUrl(), baseUrl),
+                        StrUtil.blankToDefault(endpoint.getApiKey(), apiKey),
+                        StrUtil.blankToDefault(endpoint.getModelName(), modelName));
+                chatEndpoints.add(new ChatEndpoint(name, model, chatRoutingConfig));
+            }
+        }
+        return new ChatEndpointRegistry(chatEndpoints, meterRegistry);
+    }
+
     @Bean
     @Scope("prototype")
-    public StreamingChatModel streamingChatModelPrototype() {
+    public StreamingChatModel streamingChatModelPrototype(ChatEndpointRegistry chatEndpointRegistry,
+                                                          ChatRoutingConfig chatRoutingConfig,
+                                                          MeterRegistry meterRegistry) {
+        return new RoutingStreamingChatModel(chatEndpointRegistry, chatRoutingConfig, meterRegistry);
+    }
+
+    private StreamingChatModel buildModel(OkHttpClient modelHttpClient, String baseUrl, String apiKey, String modelName) {
         return OpenAiStreamingChatModel.builder()
+                // 所有端点共用同一个 HTTP 连接池
+                .httpClientBuilder(new CancellableHttpClientBuilder(new OkHttpModelClientBuilder(modelHttpClient)))
                 .apiKey(apiKey)
                 .baseUrl(baseUrl)
                 .modelName(modelName)
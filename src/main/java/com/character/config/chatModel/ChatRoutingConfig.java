@@ -0,0 +1,61 @@
+package com.character.config.chatModel;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 多端点路由配置：对冲请求与故障摘除
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.chat.routing")
+@Data
+public class ChatRoutingConfig {
+
+    /**
+     * 是否开启对冲请求（首 token 超时后向下一个端点再发一次）
+     */
+    private boolean hedgeEnabled = true;
+
+    /**
+     * 样本不足时的对冲等待时间
+     */
+    private Duration defaultHedgeDelay = Duration.ofMillis(1500);
+
+    /**
+     * 对冲等待时间下限
+     */
+    private Duration minHedgeDelay = Duration.ofMillis(300);
+
+    /**
+     * 对冲等待时间上限
+     */
+    private Duration maxHedgeDelay = Duration.ofSeconds(5);
+
+    /**
+     * 计算 p95 首 token 延迟所用的最近样本数
+     */
+    private int latencyWindow = 100;
+
+    /**
+     * 样本数达到多少后才用 p95 作为对冲等待时间
+     */
+    private int minSamples = 10;
+
+    /**
+     * 首 token 延迟 EWMA 的平滑系数
+     */
+    private double ewmaAlpha = 0.2;
+
+    /**
+     * 连续失败多少次后摘除端点
+     */
+    private int failureThreshold = 3;
+
+    /**
+     * 端点被摘除的时长
+     */
+    private Duration ejectDuration = Duration.ofSeconds(30);
+}
@@ -0,0 +1,137 @@
+package com.character.config.chatModel;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大模型 HTTP 传输配置
+ * 所有对话模型端点和向量模型共用同一个 OkHttpClient：同一个连接池、TLS 会话和调度线程，
+ * 支持时通过 ALPN 协商 HTTP/2，在一条连接上多路复用并发的流式请求。
+ */
+@Configuration
+@ConfigurationProperties(prefix = "ai.model.http")
+@Data
+public class ModelHttpConfig {
+
+    /**
+     * 是否启用 HTTP/2（服务端不支持时自动回退到 HTTP/1.1）
+     */
+    private boolean http2Enabled = true;
+
+    /**
+     * 连接池最大空闲连接数
+     */
+    private int maxIdleConnections = 32;
+
+    /**
+     * 空闲连接保活时间
+     */
+    private Duration keepAlive = Duration.ofMinutes(5);
+
+    /**
+     * 同时进行的请求数上限（流式请求会一直占用到回复结束）
+     */
+    private int maxRequests = 256;
+
+    /**
+     * 单个模型服务地址同时进行的请求数上限
+     */
+    private int maxRequestsPerHost = 256;
+
+    /**
+     * HTTP/2 心跳间隔，避免空闲连接被中间设备静默断开
+     */
+    private Duration pingInterval = Duration.ofSeconds(30);
+
+    /**
+     * 默认连接超时，模型构建器设置的超时优先
+     */
+    private Duration connectTimeout = Duration.ofSeconds(10);
+
+    /**
+     * 默认读超时（两次读取之间的最长间隔），模型构建器设置的超时优先
+     */
+    private Duration readTimeout = Duration.ofSeconds(60);
+
+    @Bean
+    public OkHttpClient modelHttpClient(MeterRegistry meterRegistry) {
+        ConnectionPool connectionPool = new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS);
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        Gauge.builder("ai.model.http.pool.connections", connectionPool, ConnectionPool::connectionCount)
+                .description("模型连接池中的连接数")
+                .register(meterRegistry);
+        Gauge.builder("ai.model.http.pool.idle", connectionPool, ConnectionPool::idleConnectionCount)
+                .description("模型连接池中的空闲连接数")
+                .register(meterRegistry);
+        Gauge.builder("ai.model.http.requests.running", dispatcher, Dispatcher::runningCallsCount)
+                .description("进行中的模型请求数")
+                .register(meterRegistry);
+        Gauge.builder("ai.model.http.requests.queued", dispatcher, Dispatcher::queuedCallsCount)
+                .description("等待调度的模型请求数")
+                .register(meterRegistry);
+        ConnectionMetricsListener metricsListener = new ConnectionMetricsListener(meterRegistry);
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .protocols(http2Enabled ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                .pingInterval(pingInterval)
+                .connectTimeout(connectTimeout)
+                .readTimeout(readTimeout)
+                .retryOnConnectionFailure(true)
+                .eventListener(metricsListener)
+                .build();
+    }
+
+    /**
+     * 统计新建连接和 TLS 握手次数，连接复用良好时这两个值应远小于请求数
+     */
+    private static final class ConnectionMetricsListener extends EventListener {
+        private final MeterRegistry meterRegistry;
+        private final Counter handshakes;
+        private final Counter connectFailures;
+
+        private ConnectionMetricsListener(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            this.handshakes = meterRegistry.counter("ai.model.http.handshakes");
+            this.connectFailures = meterRegistry.counter("ai.model.http.connect.failures");
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            handshakes.increment();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            meterRegistry.counter("ai.model.http.connections.opened",
+                    "protocol", protocol == null ? "unknown" : protocol.toString()).increment();
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol,
+                                  IOException ioe) {
+            connectFailures.increment();
+        }
+    }
+}
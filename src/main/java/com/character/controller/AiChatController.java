@@ -3,16 +3,22 @@ package com.character.controller;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
+import com.character.ai.ChatChunkCoalescer;
+import com.character.ai.ChatFrame;
+import com.character.ai.ChatReplayBuffer;
 import com.character.common.BaseResponse;
 import com.character.common.ResultUtils;
+import com.character.exception.BusinessException;
 import com.character.exception.ErrorCode;
 import com.character.exception.ThrowUtils;
 import com.character.model.dto.app.AppDTO;
 import com.character.model.entity.App;
 import com.character.model.entity.User;
+import com.character.model.enums.ChatPriorityEnum;
 import com.character.service.AppService;
 import com.character.service.ChatHistoryService;
 import com.character.service.UserService;
+import com.character.util.SseFrameEncoder;
 import dev.langchain4j.community.store.memory.chat.redis.RedisChatMemoryStore;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
@@ -37,6 +43,10 @@ public class AiChatController {
     private final ChatHistoryService chatHistoryService;
     @Resource
     private RedisChatMemoryStore redisChatMemoryStore;
+    @Resource
+    private ChatChunkCoalescer chatChunkCoalescer;
+    @Resource
+    private ChatReplayBuffer chatReplayBuffer;
 
     /**
      * 创建应用
@@ -58,23 +68,52 @@ public class AiChatController {
     @GetMapping("/chat")
     public Flux<ServerSentEvent<String>> chat(@RequestParam Long appId,
                                               @RequestParam(required = false) String message,
+                                              @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
                                               HttpServletRequest request) {
         // 参数校验
         ThrowUtils.throwIf(appId == null || appId <= 0, ErrorCode.PARAMS_ERROR, "应用ID无效");
         ThrowUtils.throwIf(StrUtil.isBlank(message), ErrorCode.PARAMS_ERROR, "用户消息不能为空");
         // 获取当前登录用户
         User loginUser = userService.getLoginUser(request);
+        // 断线重连时从缓冲中续传，不再重新生成
+        if (StrUtil.isNotBlank(lastEventId)) {
+            Flux<ChatFrame> resumed = chatReplayBuffer.resume(loginUser.getId(), lastEventId);
+            if (resumed != null) {
+                return toServerSentEvents(resumed);
+            }
+        }
         // 调用服务生成代码（流式）
         Flux<String> contentFlux = appService.chat(appId, message, loginUser);
-        return contentFlux
-                .map(chunk -> {
-                    // 将内容包装成JSON对象
-                    Map<String, String> wrapper = Map.of("d", chunk);
-                    String jsonData = JSONUtil.toJsonStr(wrapper);
+        // 按时间窗口/字节数合并 token，并为每帧分配序号写入续传缓冲
+        Flux<ChatFrame> frames = chatReplayBuffer.publish(loginUser.getId(), chatChunkCoalescer.coalesce(contentFlux));
+        return toServerSentEvents(frames);
+    }
+
+    /**
+     * 帧流转为 SSE 事件流，每帧直接转义成 {"d": ...} 格式的 JSON
+     */
+    private Flux<ServerSentEvent<String>> toServerSentEvents(Flux<ChatFrame> frames) {
+        SseFrameEncoder encoder = new SseFrameEncoder();
+        return frames
+                .map(frame -> {
+                    if (frame.isExpired()) {
+                        // 续传缓冲已过期，客户端需要重新拉取历史记录
+                        return ServerSentEvent.<String>builder()
+                                .event("expired")
+                                .data("")
+                                .build();
+                    }
                     return ServerSentEvent.<String>builder()
-                            .data(jsonData)
+                            .id(frame.getId())
+                            .data(encoder.encode(frame.getText()))
                             .build();
                 })
+                // 排队超时或队列已满时发送明确的繁忙事件，而不是让客户端一直等待；繁忙可以稍后重试
+                .onErrorResume(error -> hasCode(error, ErrorCode.TOO_MANY_REQUEST),
+                        error -> Mono.just(errorEvent("busy", ErrorCode.TOO_MANY_REQUEST, error)))
+                // 今日额度用完单独发送 quota 事件，当天重试不会成功，客户端不应按繁忙处理
+                .onErrorResume(error -> hasCode(error, ErrorCode.QUOTA_EXCEEDED),
+                        error -> Mono.just(errorEvent("quota", ErrorCode.QUOTA_EXCEEDED, error)))
                 .concatWith(Mono.just(
                         // 发送结束事件
                         ServerSentEvent.<String>builder()
@@ -84,6 +123,20 @@ public class AiChatController {
                 ));
     }
 
+    private static boolean hasCode(Throwable error, ErrorCode errorCode) {
+        return error instanceof BusinessException
+                && ((BusinessException) error).getCode() == errorCode.getCode();
+    }
+
+    private static ServerSentEvent<String> errorEvent(String event, ErrorCode errorCode, Throwable error) {
+        return ServerSentEvent.<String>builder()
+                .event(event)
+                .data(JSONUtil.toJsonStr(Map.of(
+                        "code", errorCode.getCode(),
+                        "message", error.getMessage())))
+                .build();
+    }
+
     /**
      * 语音聊天接口（使用已提取的用户信息，避免 HttpServletRequest 回收问题）
      */
@@ -92,8 +145,8 @@ public class AiChatController {
         ThrowUtils.throwIf(appId == null || appId <= 0, ErrorCode.PARAMS_ERROR, "应用ID无效");
         ThrowUtils.throwIf(StrUtil.isBlank(message), ErrorCode.PARAMS_ERROR, "用户消息不能为空");
         ThrowUtils.throwIf(loginUser == null, ErrorCode.NOT_LOGIN_ERROR, "用户未登录");
-        // 调用服务生成代码（流式）
-        Flux<String> contentFlux = appService.chat(appId, message, loginUser);
+        // 调用服务生成代码（流式），语音对话走高优先级通道
+        Flux<String> contentFlux = appService.chat(appId, message, loginUser, ChatPriorityEnum.VOICE);
         return contentFlux;
     }
 }
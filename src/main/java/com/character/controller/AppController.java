@@ -3,6 +3,7 @@ package com.character.controller;
 import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.character.ai.AppPersonaCache;
 import com.character.annotation.AuthCheck;
 import com.character.common.BaseResponse;
 import com.character.common.DeleteRequest;
@@ -47,6 +48,9 @@ public class AppController {
     @Resource
     private TTSService ttsService;
 
+    @Resource
+    private AppPersonaCache appPersonaCache;
+
     /**
      * 创建应用
      *
@@ -91,6 +95,7 @@ public class AppController {
             throw new BusinessException(ErrorCode.NO_AUTH_ERROR);
         }
         boolean result = appService.removeById(id);
+        appPersonaCache.publishInvalidation(id);
         return ResultUtils.success(result);
     }
 
@@ -123,6 +128,8 @@ public class AppController {
         app.setEditTime(LocalDateTime.now());
         boolean result = appService.updateById(app);
         ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+        // 刷新集群内的人设缓存和依赖它的 AI 服务实例
+        appPersonaCache.publishInvalidation(id);
         return ResultUtils.success(true);
     }
 
@@ -240,6 +247,7 @@ public class AppController {
         App oldApp = appService.getById(id);
         ThrowUtils.throwIf(oldApp == null, ErrorCode.NOT_FOUND_ERROR);
         boolean result = appService.removeById(id);
+        appPersonaCache.publishInvalidation(id);
         return ResultUtils.success(result);
     }
 
@@ -13,6 +13,7 @@ public enum ErrorCode {
     FORBIDDEN_ERROR(40300, "禁止访问"),
     SYSTEM_ERROR(50000, "系统内部异常"),
     TOO_MANY_REQUEST(42900, "请求过于频繁"),
+    QUOTA_EXCEEDED(42901, "今日额度已用完"),
     OPERATION_ERROR(50001, "操作失败");
 
     /**
@@ -2,6 +2,9 @@ package com.character.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.character.model.entity.ChatHistory;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
 * @author lixuewu
@@ -11,6 +14,10 @@ import com.character.model.entity.ChatHistory;
 */
 public interface ChatHistoryMapper extends BaseMapper<ChatHistory> {
 
+    /**
+     * 多行批量写入，id 已存在的行忽略（本地日志重放时可能重复）
+     */
+    int insertBatch(@Param("list") List<ChatHistory> histories);
 }
 
 
@@ -0,0 +1,24 @@
+package com.character.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.character.model.entity.ChatUsage;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 针对表【chat_usage(对话 token 用量)】的数据库操作Mapper
+ */
+public interface ChatUsageMapper extends BaseMapper<ChatUsage> {
+
+    /**
+     * 批量累加用量，(user_id, app_id, usage_date) 已存在时在原值上累加
+     */
+    int upsertBatch(@Param("list") List<ChatUsage> usages);
+
+    /**
+     * 查询用户某天的 token 总用量
+     */
+    Long sumUserTokens(@Param("userId") Long userId, @Param("usageDate") LocalDate usageDate);
+}
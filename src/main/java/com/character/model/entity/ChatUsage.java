@@ -0,0 +1,76 @@
+package com.character.model.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 对话 token 用量（按用户、应用、日期汇总）
+ * @TableName chat_usage
+ */
+@TableName(value = "chat_usage")
+@Data
+public class ChatUsage implements Serializable {
+    /**
+     * id
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 用户id
+     */
+    @TableField(value = "user_id")
+    private Long userId;
+
+    /**
+     * 应用id
+     */
+    @TableField(value = "app_id")
+    private Long appId;
+
+    /**
+     * 统计日期
+     */
+    @TableField(value = "usage_date")
+    private LocalDate usageDate;
+
+    /**
+     * 输入 token 数
+     */
+    @TableField(value = "prompt_tokens")
+    private Long promptTokens;
+
+    /**
+     * 输出 token 数
+     */
+    @TableField(value = "completion_tokens")
+    private Long completionTokens;
+
+    /**
+     * 对话轮数
+     */
+    @TableField(value = "turns")
+    private Long turns;
+
+    /**
+     * 创建时间
+     */
+    @TableField(value = "create_time")
+    private LocalDateTime createTime;
+
+    /**
+     * 更新时间
+     */
+    @TableField(value = "update_time")
+    private LocalDateTime updateTime;
+
+    @TableField(exist = false)
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,41 @@
+package com.character.model.enums;
+
+import cn.hutool.core.util.ObjUtil;
+import lombok.Getter;
+
+/**
+ * 对话优先级：语音对话对延迟更敏感，优先获得大模型调用名额
+ */
+@Getter
+public enum ChatPriorityEnum {
+
+    VOICE("语音", "voice"),
+    TEXT("文字", "text");
+
+    private final String text;
+
+    private final String value;
+
+    ChatPriorityEnum(String text, String value) {
+        this.text = text;
+        this.value = value;
+    }
+
+    /**
+     * 根据 value 获取枚举
+     *
+     * @param value 枚举值的value
+     * @return 枚举值
+     */
+    public static ChatPriorityEnum getEnumByValue(String value) {
+        if (ObjUtil.isEmpty(value)) {
+            return null;
+        }
+        for (ChatPriorityEnum anEnum : ChatPriorityEnum.values()) {
+            if (anEnum.value.equals(value)) {
+                return anEnum;
+            }
+        }
+        return null;
+    }
+}
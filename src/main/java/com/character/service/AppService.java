@@ -5,6 +5,7 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.character.model.dto.app.AppQueryRequest;
 import com.character.model.entity.App;
 import com.character.model.entity.User;
+import com.character.model.enums.ChatPriorityEnum;
 import com.character.model.vo.AppVO;
 import reactor.core.publisher.Flux;
 
@@ -25,6 +26,16 @@ public interface AppService extends IService<App> {
      */
     Flux<String> chat(Long appId, String message, User loginUser);
 
+    /**
+     * 按指定优先级聊天，语音对话优先获得大模型调用名额
+     * @param appId
+     * @param message
+     * @param loginUser
+     * @param priority
+     * @return
+     */
+    Flux<String> chat(Long appId, String message, User loginUser, ChatPriorityEnum priority);
+
     /**
      * 首次打开应用，发送开场白
      * @param appId
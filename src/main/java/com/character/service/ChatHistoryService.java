@@ -26,8 +26,21 @@ public interface ChatHistoryService extends IService<ChatHistory> {
      */
     int loadChatHistoryToMemory(long appId, Long userId, MessageWindowChatMemory chatMemory, int maxCount);
 
+    /**
+     * 添加对话消息，交给延迟批量写入
+     *
+     * @return 是否已入队，写入队列已满时返回 false，调用方需要处理
+     */
     boolean addChatMessage(Long appId, String message, String messageType, Long userId);
 
+    /**
+     * 用户在该应用下是否已有对话记录
+     * @param appId
+     * @param userId
+     * @return
+     */
+    boolean hasChatHistory(Long appId, Long userId);
+
     /**
      * 分页查询某app的对话记录
      * @param appId
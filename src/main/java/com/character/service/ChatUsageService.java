@@ -0,0 +1,30 @@
+package com.character.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.character.model.entity.ChatUsage;
+
+/**
+ * 针对表【chat_usage(对话 token 用量)】的数据库操作Service
+ */
+public interface ChatUsageService extends IService<ChatUsage> {
+
+    /**
+     * 记录一轮对话的 token 用量（只累加内存计数，定时批量写库）
+     *
+     * @param appId            应用id
+     * @param userId           用户id
+     * @param promptTokens     输入 token 数
+     * @param completionTokens 输出 token 数
+     */
+    void recordUsage(Long appId, Long userId, long promptTokens, long completionTokens);
+
+    /**
+     * 用户今日用量是否已达到配额（基于内存视图判断，不逐次查库）
+     */
+    boolean isOverDailyQuota(Long userId);
+
+    /**
+     * 把内存中累计的用量批量写入数据库
+     */
+    void flushUsage();
+}
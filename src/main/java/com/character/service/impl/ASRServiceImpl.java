@@ -1,6 +1,7 @@
 package com.character.service.impl;
 
 import com.character.controller.AiChatController;
+import com.character.exception.BusinessException;
 import com.character.model.entity.User;
 import com.character.service.ASRService;
 import com.character.service.TTSService;
@@ -155,7 +156,13 @@ public class ASRServiceImpl implements ASRService {
                     sink.tryEmitNext("REPLY:" + reply);
                     fullReplyBuilder.append(reply);
                 },
-                err -> logger.error("AI回复流错误，会话ID: " + sessionId, err),
+                err -> {
+                    logger.error("AI回复流错误，会话ID: " + sessionId, err);
+                    // 排队繁忙等可预期的错误需要告知前端，避免语音对话无响应
+                    if (err instanceof BusinessException) {
+                        sink.tryEmitNext("ERROR:" + err.getMessage());
+                    }
+                },
                 () -> {
                     String fullReply = fullReplyBuilder.toString();
                     logger.info("AI回复完成，开始TTS转换，文本长度: {}", fullReply.length());
@@ -7,6 +7,18 @@ import com.baomidou.mybatisplus.core.toolkit.StringUtils;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.character.ai.AiChatService;
 import com.character.ai.AiChatServiceFactory;
+import com.character.ai.AppPersonaCache;
+import com.character.ai.ChatAdmissionScheduler;
+import com.character.ai.ChatMetrics;
+import com.character.ai.ChatReplyBudget;
+import com.character.ai.ChatStreamCoalescer;
+import com.character.ai.ChatTurnScope;
+import com.character.ai.model.PrefetchedEmbedding;
+import com.character.ai.model.TurnUsage;
+import com.character.ai.model.UpstreamCancellation;
+import com.character.ai.rag.HybridRetriever;
+import com.character.ai.rag.QueryEmbeddingCache;
+import com.character.ai.rag.RetrievalRouter;
 import com.character.exception.BusinessException;
 import com.character.exception.ErrorCode;
 import com.character.exception.ThrowUtils;
@@ -15,11 +27,15 @@ import com.character.model.dto.app.AppQueryRequest;
 import com.character.model.entity.App;
 import com.character.model.entity.User;
 import com.character.model.enums.ChatHistoryMessageTypeEnum;
+import com.character.model.enums.ChatPriorityEnum;
 import com.character.model.vo.AppVO;
 import com.character.model.vo.UserVO;
 import com.character.service.AppService;
 import com.character.service.ChatHistoryService;
+import com.character.service.ChatUsageService;
 import com.character.service.UserService;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.output.TokenUsage;
 import jakarta.annotation.Resource;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Lazy;
@@ -30,6 +46,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -53,35 +72,147 @@ public class AppServiceImpl extends ServiceImpl<AppMapper, App>
     @Lazy
     @Resource
     private  AiChatServiceFactory aiChatServiceFactory;
+    @Resource
+    private ChatStreamCoalescer chatStreamCoalescer;
+    @Resource
+    private ChatAdmissionScheduler chatAdmissionScheduler;
+    @Resource
+    private ChatReplyBudget chatReplyBudget;
+    @Resource
+    private ChatUsageService chatUsageService;
+    @Resource
+    private ChatMetrics chatMetrics;
+    @Resource
+    private AppPersonaCache appPersonaCache;
+    @Resource
+    private QueryEmbeddingCache queryEmbeddingCache;
+    @Resource
+    private RetrievalRouter retrievalRouter;
+    @Resource
+    private HybridRetriever hybridRetriever;
     @Override
     public Flux<String> chat(Long appId, String message, User loginUser) {
-        // 1. 查询应用信息
-        App app = this.getById(appId);
-        ThrowUtils.throwIf(app == null, ErrorCode.NOT_FOUND_ERROR, "应用不存在");
-        // 2. 添加用户消息到对话历史
-        chatHistoryService.addChatMessage(appId, message, ChatHistoryMessageTypeEnum.USER.getValue(), loginUser.getId());
-        // 3. 根据 appId 和 userId获取对应的 AI 服务实例
-        AiChatService aiService = aiChatServiceFactory.getAiCodeGeneratorService(appId, loginUser.getId());
-        // 4. 调用 AI 生成消息（流式）
-        Flux<String> messageStream = aiService.generateChatMessageStream(message , appId + "_" + loginUser.getId());
-        // 5. 收集AI响应内容并在完成后记录到对话历史
+        return chat(appId, message, loginUser, ChatPriorityEnum.TEXT);
+    }
+
+    @Override
+    public Flux<String> chat(Long appId, String message, User loginUser, ChatPriorityEnum priority) {
+        // 今日 token 配额用完后不再调用模型，以流错误返回以便文字和语音对话都能提示
+        if (chatUsageService.isOverDailyQuota(loginUser.getId())) {
+            return Flux.error(new BusinessException(ErrorCode.QUOTA_EXCEEDED, "今日对话额度已用完，请明天再来"));
+        }
+        // 经过准入调度拿到生成名额后才真正开始对话，繁忙时直接返回
+        return chatAdmissionScheduler.admit(appId, loginUser.getId(), priority, () -> doChat(appId, message, loginUser));
+    }
+
+    /**
+     * 拿到生成名额后的对话流程
+     */
+    private Flux<String> doChat(Long appId, String message, User loginUser) {
+        long startNanos = System.nanoTime();
+        Long userId = loginUser.getId();
+        String memoryId = AiChatServiceFactory.buildMemoryId(appId, userId);
+        // 1. 并行准备本轮对话，各步骤在虚拟线程上执行，只按真实依赖排序
+        ChatTurnScope scope = new ChatTurnScope(chatMetrics);
+        // 查询应用（不存在时失败）并获取应用共享的 AI 服务实例
+        CompletableFuture<AiChatService> service = scope.fork("app_lookup", () -> {
+            appPersonaCache.get(appId);
+            return aiChatServiceFactory.getAiChatService(appId);
+        });
+        // 加载会话记忆，未缓存时从数据库加载历史
+        CompletableFuture<ChatMemory> memory = scope.fork("memory_load",
+                () -> aiChatServiceFactory.getChatMemory(memoryId));
+        // 无上下文的首轮对话才允许与相同提问合并
+        CompletableFuture<Boolean> firstTurn = scope.fork("history_check",
+                () -> chatStreamCoalescer.isCoalescible(message) && !chatHistoryService.hasChatHistory(appId, userId));
+        // 提前计算 RAG 检索用的提问向量（优先查缓存），无需检索的消息、只做词法检索和向量检索暂停时不计算
+        // 向量模型变慢或不可用时检索会降级为 BM25，这里失败不影响本轮对话
+        PrefetchedEmbedding prefetched = hybridRetriever.skipsVector() || retrievalRouter.isTrivial(message) ? null
+                : new PrefetchedEmbedding(message,
+                scope.forkBestEffort("query_embed", () -> queryEmbeddingCache.embed(message)));
+        // 用户消息写入（入队即对本节点的查询可见）不是生成的前置条件，但要排在记忆加载和首轮判断之后，
+        // 避免被重复加载进记忆或影响判断
+        // 写入队列已满时本轮失败（按繁忙返回），不能在用户消息丢失的情况下继续生成
+        scope.fork("persist", () -> {
+            boolean submitted = chatHistoryService.addChatMessage(appId, message,
+                    ChatHistoryMessageTypeEnum.USER.getValue(), userId);
+            if (!submitted) {
+                chatMetrics.recordHistoryRejected(ChatHistoryMessageTypeEnum.USER.getValue());
+            }
+            ThrowUtils.throwIf(!submitted, ErrorCode.TOO_MANY_REQUEST, "当前对话人数较多，请稍后再试");
+            return true;
+        }, service, memory, firstTurn);
+        boolean coalescible = chatMetrics.recordStage("prepare", () -> {
+            scope.join(service, memory, firstTurn);
+            return firstTurn.join();
+        });
+        // 2. 通过 memoryId 区分用户记忆，调用 AI 生成消息（流式）
+        // 模型调用期间绑定取消句柄和用量记录：超出回复预算或上游被取消时直接中断模型的 HTTP 流，
+        // 回复完成时路由模型写入本轮的 token 用量
+        UpstreamCancellation cancellation = new UpstreamCancellation();
+        TurnUsage turnUsage = new TurnUsage();
+        Supplier<Flux<String>> generator = () -> {
+            // 流式调用在这里同步完成 RAG 检索并发出模型请求
+            Supplier<Flux<String>> invoke = () -> service.join().generateChatMessageStream(message, memoryId);
+            Flux<String> upstream = chatMetrics.recordStage("model_invoke", () ->
+                    cancellation.supply(() -> turnUsage.supply(() ->
+                            prefetched == null ? invoke.get() : prefetched.supply(invoke))));
+            return chatReplyBudget.limit(appId, memoryId, upstream.doOnCancel(cancellation::cancel));
+        };
+        // 3. 首轮对话走合并层，相同提问共享同一个上游流
+        Flux<String> messageStream = (coalescible
+                ? chatStreamCoalescer.coalesce(appId, message, memoryId, generator)
+                : generator.get())
+                // 回复结束前确保用户消息已写入，写入失败时本轮也失败
+                .mergeWith(scope.completion());
+        // 4. 收集AI响应内容并在完成后记录到对话历史
         StringBuilder aiResponseBuilder = new StringBuilder();
-        return messageStream
+        AtomicLong chunkCount = new AtomicLong();
+        return chatMetrics.instrumentReply(appId, startNanos, turnUsage, messageStream)
                 .map(chunk -> {
                     // 收集AI响应内容
                     aiResponseBuilder.append(chunk);
+                    chunkCount.incrementAndGet();
                     return chunk;
                 })
+                // 回调运行在投递最后一个 token 的线程上，对话历史只入队由批量写入线程写库，不会阻塞
                 .doOnComplete(() -> {
                     // 流式响应完成后，添加AI消息到对话历史
                     String aiResponse = aiResponseBuilder.toString();
-                    chatHistoryService.addChatMessage(appId, aiResponse, ChatHistoryMessageTypeEnum.AI.getValue(), loginUser.getId());
+                    if (!chatHistoryService.addChatMessage(appId, aiResponse, ChatHistoryMessageTypeEnum.AI.getValue(), loginUser.getId())) {
+                        // 回复已发给用户，不再让本轮失败，只计数用于告警
+                        chatMetrics.recordHistoryRejected(ChatHistoryMessageTypeEnum.AI.getValue());
+                    }
                 })
                 .doOnError(error -> {
                     // 如果AI回复失败，也要记录错误消息
                     String errorMessage = "AI回复失败: " + error.getMessage();
-                    chatHistoryService.addChatMessage(appId, errorMessage, ChatHistoryMessageTypeEnum.AI.getValue(), loginUser.getId());
-                });
+                    if (!chatHistoryService.addChatMessage(appId, errorMessage, ChatHistoryMessageTypeEnum.AI.getValue(), loginUser.getId())) {
+                        chatMetrics.recordHistoryRejected(ChatHistoryMessageTypeEnum.AI.getValue());
+                    }
+                })
+                .doFinally(signal -> recordUsage(appId, loginUser.getId(), turnUsage, chunkCount.get(), aiResponseBuilder));
+    }
+
+    /**
+     * 记录本轮 token 用量
+     * 合并生成的跟随者没有发起模型调用，不计用量；被截断或中断的回复拿不到模型返回的用量，
+     * 提示词按请求消息估算，输出取模型输出分片数与按已收到文本估算值中的较大者。
+     * 打开后立即断开的对话主要消耗在提示词上，不能按 0 计入配额
+     */
+    private void recordUsage(Long appId, Long userId, TurnUsage turnUsage, long chunkCount, CharSequence reply) {
+        if (!turnUsage.isStarted()) {
+            return;
+        }
+        TokenUsage tokenUsage = turnUsage.getTokenUsage();
+        if (tokenUsage != null && tokenUsage.totalTokenCount() != null) {
+            long promptTokens = tokenUsage.inputTokenCount() == null ? 0 : tokenUsage.inputTokenCount();
+            long completionTokens = tokenUsage.outputTokenCount() == null ? 0 : tokenUsage.outputTokenCount();
+            chatUsageService.recordUsage(appId, userId, promptTokens, completionTokens);
+        } else {
+            long completionTokens = Math.max(chunkCount, TurnUsage.estimateTokens(reply));
+            chatUsageService.recordUsage(appId, userId, turnUsage.getEstimatedPromptTokens(), completionTokens);
+        }
     }
 
     @Override
@@ -3,8 +3,10 @@ package com.character.service.impl;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.character.ai.ChatHistoryWriter;
 import com.character.exception.ErrorCode;
 import com.character.exception.ThrowUtils;
 import com.character.mapper.ChatHistoryMapper;
@@ -26,7 +28,12 @@ import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
 * @author lixuewu
@@ -42,15 +49,21 @@ public class ChatHistoryServiceImpl extends ServiceImpl<ChatHistoryMapper, ChatH
     @Resource
     private final AppService appService;
 
+    @Resource
+    private ChatHistoryWriter chatHistoryWriter;
+
     @Override
     public int loadChatHistoryToMemory(long appId, Long userId, MessageWindowChatMemory chatMemory, int maxCount) {
         try {
             // 直接构造查询条件，起始点为 1 而不是 0，用于排除最新的用户消息
             QueryWrapper queryWrapper = new QueryWrapper<>()
                     .eq("app_id", appId)                 // 等值条件
+                    .eq("user_id", userId)
                     .orderByDesc("create_time")          // 倒序
                     .last("limit " + maxCount);          // 限制条数
-            List<ChatHistory> historyList = this.list(queryWrapper);
+            // 合并本节点尚未写库的消息
+            List<ChatHistory> historyList = mergePending(this.list(queryWrapper),
+                    chatHistoryWriter.pendingRows(appId, userId), maxCount);
             if (CollUtil.isEmpty(historyList)) {
                 return 0;
             }
@@ -87,23 +100,35 @@ public class ChatHistoryServiceImpl extends ServiceImpl<ChatHistoryMapper, ChatH
         // 验证消息类型是否有效
         ChatHistoryMessageTypeEnum messageTypeEnum = ChatHistoryMessageTypeEnum.getEnumByValue(messageType);
         ThrowUtils.throwIf(messageTypeEnum == null, ErrorCode.PARAMS_ERROR, "不支持的消息类型: " + messageType);
+        // 提前分配 id，写库前本节点的查询就能看到并按 id 去重
         ChatHistory chatHistory = ChatHistory.builder()
+                .id(IdWorker.getId())
                 .appId(appId)
                 .message(message)
                 .messageType(messageType)
                 .userId(userId)
                 .createTime(LocalDateTime.now())
                 .build();
-        return this.save(chatHistory);
+        // 交给延迟批量写入，只入队不阻塞
+        return chatHistoryWriter.submit(chatHistory);
+    }
+
+    @Override
+    public boolean hasChatHistory(Long appId, Long userId) {
+        if (chatHistoryWriter.hasPendingRows(appId, userId)) {
+            return true;
+        }
+        QueryWrapper<ChatHistory> queryWrapper = new QueryWrapper<ChatHistory>()
+                .eq("app_id", appId)
+                .eq("user_id", userId);
+        return this.getBaseMapper().exists(queryWrapper);
     }
 
 
     @Override
     public ChatHistoryResponse listAppChatHistoryByPage(Long appId, int pageSize, LocalDateTime lastCreateTime, String messageType, User loginUser) {
         //如果是第一次点开应用，ai先发送开场白
-        List<ChatHistory> chatHistories = this.list(new QueryWrapper<ChatHistory>().eq("app_id", appId)
-                .eq("user_id", loginUser.getId()));
-        if (chatHistories.size() == 0) {
+        if (!hasChatHistory(appId, loginUser.getId())) {
             App app = appService.getById(appId);
             ChatHistoryResponse chatHistoryResponse = new ChatHistoryResponse();
             chatHistoryResponse.setPrologue(app.getPrologue());
@@ -133,11 +158,47 @@ public class ChatHistoryServiceImpl extends ServiceImpl<ChatHistoryMapper, ChatH
         // 默认按创建时间降序排列
         queryWrapper.orderByDesc("create_time");
         // 查询数据
+        Page<ChatHistory> page = this.page(Page.of(1, pageSize), queryWrapper);
+        // 合并本节点尚未写库的消息，它们总是最新的
+        List<ChatHistory> pending = chatHistoryWriter.pendingRows(appId, loginUser.getId()).stream()
+                .filter(row -> StrUtil.isBlank(messageType) || messageType.equals(row.getMessageType()))
+                .filter(row -> lastCreateTime == null || row.getCreateTime().isBefore(lastCreateTime))
+                .toList();
+        if (!pending.isEmpty()) {
+            Set<Long> storedIds = page.getRecords().stream().map(ChatHistory::getId).collect(Collectors.toSet());
+            long unflushed = pending.stream().filter(row -> !storedIds.contains(row.getId())).count();
+            page.setTotal(page.getTotal() + unflushed);
+            page.setRecords(mergePending(page.getRecords(), pending, pageSize));
+        }
         ChatHistoryResponse chatHistoryResponse = new ChatHistoryResponse();
-        chatHistoryResponse.setHistory(this.page(Page.of(1, pageSize), queryWrapper));
+        chatHistoryResponse.setHistory(page);
         return chatHistoryResponse;
     }
 
+    /**
+     * 合并数据库查询结果与尚未写库的消息，按 id 去重后按创建时间倒序取前 limit 条
+     *
+     * @param stored  数据库查询结果，按创建时间倒序
+     * @param pending 尚未写库的消息
+     * @param limit   最多返回条数
+     */
+    private List<ChatHistory> mergePending(List<ChatHistory> stored, List<ChatHistory> pending, int limit) {
+        if (pending.isEmpty()) {
+            return stored;
+        }
+        Map<Long, ChatHistory> merged = new LinkedHashMap<>();
+        for (ChatHistory row : stored) {
+            merged.put(row.getId(), row);
+        }
+        for (ChatHistory row : pending) {
+            merged.putIfAbsent(row.getId(), row);
+        }
+        return merged.values().stream()
+                .sorted(Comparator.comparing(ChatHistory::getCreateTime).reversed())
+                .limit(limit)
+                .toList();
+    }
+
 
     /**
      * 获取查询包装类
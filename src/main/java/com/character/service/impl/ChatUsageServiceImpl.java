@@ -0,0 +1,160 @@
+package com.character.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.character.config.ChatUsageConfig;
+import com.character.mapper.ChatUsageMapper;
+import com.character.model.entity.ChatUsage;
+import com.character.service.ChatUsageService;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对话 token 用量统计
+ * 每轮对话只累加内存中的分段计数器（LongAdder），由定时任务批量写库；
+ * 配额判断使用内存中的当日累计值，每个用户每天只在首次访问时查一次库作为基数。
+ * 多实例部署时各实例只看到库中基数加本实例的增量，配额是近似值。
+ */
+@Service
+@Slf4j
+public class ChatUsageServiceImpl extends ServiceImpl<ChatUsageMapper, ChatUsage> implements ChatUsageService {
+
+    @Resource
+    private ChatUsageConfig chatUsageConfig;
+
+    /**
+     * 待写库的用量增量
+     */
+    private final Map<UsageKey, UsageCounter> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 用户当日 token 累计值，key 为 userId + 日期
+     */
+    private final Map<DailyKey, LongAdder> dailyTotals = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordUsage(Long appId, Long userId, long promptTokens, long completionTokens) {
+        if (!chatUsageConfig.isEnabled() || appId == null || userId == null) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        UsageCounter counter = pending.computeIfAbsent(new UsageKey(userId, appId, today), key -> new UsageCounter());
+        counter.promptTokens.add(promptTokens);
+        counter.completionTokens.add(completionTokens);
+        counter.turns.increment();
+        dailyTotal(userId, today).add(promptTokens + completionTokens);
+    }
+
+    @Override
+    public boolean isOverDailyQuota(Long userId) {
+        if (!chatUsageConfig.isEnabled() || userId == null) {
+            return false;
+        }
+        long quota = chatUsageConfig.getUserDailyTokenQuotas()
+                .getOrDefault(userId, chatUsageConfig.getDailyTokenQuota());
+        if (quota <= 0) {
+            return false;
+        }
+        return dailyTotal(userId, LocalDate.now()).sum() >= quota;
+    }
+
+    private LongAdder dailyTotal(Long userId, LocalDate date) {
+        DailyKey key = new DailyKey(userId, date);
+        LongAdder total = dailyTotals.get(key);
+        if (total != null) {
+            return total;
+        }
+        // 查库放在 computeIfAbsent 之外，避免查询期间阻塞散列到同一个桶的其他用户；并发首次访问可能重复查询，结果相同
+        LongAdder seeded = new LongAdder();
+        try {
+            Long persisted = getBaseMapper().sumUserTokens(userId, date);
+            seeded.add(persisted == null ? 0 : persisted);
+        } catch (Exception e) {
+            log.warn("加载用户当日用量失败，userId: {}, error: {}", userId, e.getMessage());
+        }
+        total = dailyTotals.putIfAbsent(key, seeded);
+        return total == null ? seeded : total;
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${ai.chat.usage.flush-interval:10s}")
+    public void flushUsage() {
+        LocalDate today = LocalDate.now();
+        List<ChatUsage> batch = new ArrayList<>();
+        List<UsageCounter> batchCounters = new ArrayList<>();
+        for (Map.Entry<UsageKey, UsageCounter> entry : pending.entrySet()) {
+            UsageKey key = entry.getKey();
+            UsageCounter counter = entry.getValue();
+            long promptTokens = counter.promptTokens.sumThenReset();
+            long completionTokens = counter.completionTokens.sumThenReset();
+            long turns = counter.turns.sumThenReset();
+            if (turns == 0 && promptTokens == 0 && completionTokens == 0) {
+                // 往日的计数器不会再有新增，清空后移除
+                if (key.usageDate.isBefore(today)) {
+                    pending.remove(key, counter);
+                }
+                continue;
+            }
+            ChatUsage usage = new ChatUsage();
+            usage.setUserId(key.userId);
+            usage.setAppId(key.appId);
+            usage.setUsageDate(key.usageDate);
+            usage.setPromptTokens(promptTokens);
+            usage.setCompletionTokens(completionTokens);
+            usage.setTurns(turns);
+            batch.add(usage);
+            batchCounters.add(counter);
+            if (batch.size() >= chatUsageConfig.getFlushBatchSize()) {
+                writeBatch(batch, batchCounters);
+                batch = new ArrayList<>();
+                batchCounters = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch, batchCounters);
+        }
+        dailyTotals.keySet().removeIf(key -> key.usageDate.isBefore(today));
+    }
+
+    private void writeBatch(List<ChatUsage> batch, List<UsageCounter> counters) {
+        try {
+            getBaseMapper().upsertBatch(batch);
+        } catch (Exception e) {
+            // 写库失败时把增量加回计数器，下次再写
+            log.error("批量写入对话用量失败，条数: {}, error: {}", batch.size(), e.getMessage(), e);
+            for (int i = 0; i < batch.size(); i++) {
+                ChatUsage usage = batch.get(i);
+                UsageCounter counter = counters.get(i);
+                counter.promptTokens.add(usage.getPromptTokens());
+                counter.completionTokens.add(usage.getCompletionTokens());
+                counter.turns.add(usage.getTurns());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flushUsage();
+    }
+
+    private record UsageKey(Long userId, Long appId, LocalDate usageDate) {
+    }
+
+    private record DailyKey(Long userId, LocalDate usageDate) {
+    }
+
+    private static final class UsageCounter {
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final LongAdder turns = new LongAdder();
+    }
+}
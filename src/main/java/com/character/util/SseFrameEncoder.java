@@ -0,0 +1,51 @@
+package com.character.util;
+
+/**
+ * SSE 消息帧编码器
+ * 直接把文本转义写入复用的缓冲区，生成 {"d":"..."} 格式的 JSON，避免每个 token 都走一次反射序列化。
+ * 每个 SSE 流使用一个实例，非线程安全。
+ *
+ * @author lixuewu
+ */
+public class SseFrameEncoder {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final StringBuilder buffer = new StringBuilder(128);
+
+    /**
+     * 编码一帧消息
+     *
+     * @param text 消息文本
+     * @return JSON 字符串
+     */
+    public String encode(String text) {
+        buffer.setLength(0);
+        buffer.append("{\"d\":\"");
+        escape(text, buffer);
+        buffer.append("\"}");
+        return buffer.toString();
+    }
+
+    private static void escape(String text, StringBuilder out) {
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                case '\b' -> out.append("\\b");
+                case '\f' -> out.append("\\f");
+                default -> {
+                    if (c < 0x20) {
+                        out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.character.ai.rag.bench;
+
+import com.character.ai.rag.HnswEmbeddingStore;
+import com.character.ai.rag.QuantizedEmbeddingStore;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 检索基准：在合成的聚簇向量上对比 HNSW、int8 量化存储与暴力扫描的召回率和延迟，
+ * 并测量边写边读时的检索延迟，以及按百万向量折算的内存占用
+ * 用法：RetrievalBenchmark [段落数=20000] [维度=1024] [查询数=500] [topK=10] [m=16] [efConstruction=200] [efSearch=64]
+ */
+public class RetrievalBenchmark {
+
+    private static final int CLUSTERS = 200;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int count = intArg(args, 0, 20_000);
+        int dimension = intArg(args, 1, 1024);
+        int queryCount = intArg(args, 2, 500);
+        int topK = intArg(args, 3, 10);
+        int m = intArg(args, 4, 16);
+        int efConstruction = intArg(args, 5, 200);
+        int efSearch = intArg(args, 6, 64);
+
+        Random random = new Random(42);
+        float[][] centroids = randomVectors(random, CLUSTERS, dimension, null);
+        List<Embedding> corpus = toEmbeddings(randomVectors(random, count, dimension, centroids));
+        List<Embedding> queries = toEmbeddings(randomVectors(random, queryCount, dimension, centroids));
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(String.valueOf(i));
+        }
+        System.out.printf("段落数 %d，维度 %d，查询数 %d，topK %d，m %d，efConstruction %d，efSearch %d%n",
+                count, dimension, queryCount, topK, m, efConstruction, efSearch);
+
+        long heapBefore = usedHeap();
+        InMemoryEmbeddingStore<TextSegment> bruteForce = new InMemoryEmbeddingStore<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            // 内存存储直接引用传入的向量，复制一份才能计入它的堆占用
+            bruteForce.add(ids.get(i), Embedding.from(corpus.get(i).vector().clone()));
+        }
+        System.out.printf("暴力扫描 入库 %d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        long bruteForceHeap = usedHeap() - heapBefore;
+
+        Path vectorDir = Files.createTempDirectory("retrieval-benchmark");
+        QuantizedEmbeddingStore quantized = new QuantizedEmbeddingStore(vectorDir, 4096, 1);
+        QuantizedEmbeddingStore quantizedRerank = new QuantizedEmbeddingStore(vectorDir, 4096, 4);
+        heapBefore = usedHeap();
+        start = System.nanoTime();
+        quantized.addAll(ids, corpus, null);
+        System.out.printf("int8     入库 %d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        long quantizedHeap = usedHeap() - heapBefore;
+        quantizedRerank.addAll(ids, corpus, null);
+
+        HnswEmbeddingStore hnsw = new HnswEmbeddingStore(m, efConstruction, efSearch);
+        start = System.nanoTime();
+        hnsw.addAll(ids, corpus, null);
+        System.out.printf("HNSW     建图 %d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        List<Set<String>> truth = new ArrayList<>(queryCount);
+        for (Embedding query : queries) {
+            truth.add(idsOf(search(bruteForce, query, topK)));
+        }
+
+        report("暴力扫描", bruteForce, queries, truth, topK);
+        report("HNSW", hnsw, queries, truth, topK);
+        report("int8", quantized, queries, truth, topK);
+        report("int8重排x4", quantizedRerank, queries, truth, topK);
+
+        // 堆外和映射文件按块分配，按已分配的容量折算
+        double perMillion = 1_000_000.0 / (1 << 20);
+        System.out.printf("每百万向量内存：暴力扫描 堆 %.0f MB；int8 堆 %.0f MB + 堆外 %.0f MB + 映射文件 %.0f MB%n",
+                bruteForceHeap * perMillion / count, quantizedHeap * perMillion / count,
+                quantized.offHeapBytes() * perMillion / quantized.capacity(),
+                quantized.mappedBytes() * perMillion / quantized.capacity());
+        concurrentReport(m, efConstruction, efSearch, ids, corpus, queries, topK);
+    }
+
+    /**
+     * 预热后逐条查询，输出召回率与延迟分位数
+     */
+    private static void report(String name, EmbeddingStore<TextSegment> store, List<Embedding> queries,
+                               List<Set<String>> truth, int topK) {
+        for (int i = 0; i < Math.min(100, queries.size()); i++) {
+            search(store, queries.get(i), topK);
+        }
+        long[] latencies = new long[queries.size()];
+        double recall = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            long start = System.nanoTime();
+            List<EmbeddingMatch<TextSegment>> matches = search(store, queries.get(i), topK);
+            latencies[i] = System.nanoTime() - start;
+            Set<String> found = idsOf(matches);
+            found.retainAll(truth.get(i));
+            recall += (double) found.size() / Math.max(1, truth.get(i).size());
+        }
+        System.out.printf("%-8s recall@%d %.4f，%s%n", name, topK, recall / queries.size(), percentiles(latencies));
+    }
+
+    /**
+     * 一个线程持续写入后半部分段落，同时另一个线程不断检索，统计写入期间的检索延迟
+     */
+    private static void concurrentReport(int m, int efConstruction, int efSearch, List<String> ids,
+                                         List<Embedding> corpus, List<Embedding> queries, int topK)
+            throws InterruptedException {
+        HnswEmbeddingStore store = new HnswEmbeddingStore(m, efConstruction, efSearch);
+        int half = ids.size() / 2;
+        store.addAll(ids.subList(0, half), corpus.subList(0, half), null);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong searches = new AtomicLong();
+        List<Long> latencies = new ArrayList<>();
+        Thread reader = Thread.ofPlatform().start(() -> {
+            int i = 0;
+            while (writing.get()) {
+                long start = System.nanoTime();
+                search(store, queries.get(i++ % queries.size()), topK);
+                latencies.add(System.nanoTime() - start);
+                searches.incrementAndGet();
+            }
+        });
+        long start = System.nanoTime();
+        for (int i = half; i < ids.size(); i++) {
+            store.add(ids.get(i), corpus.get(i));
+        }
+        long elapsed = System.nanoTime() - start;
+        writing.set(false);
+        reader.join();
+        long[] samples = latencies.stream().mapToLong(Long::longValue).toArray();
+        System.out.printf("边写边读 写入 %d 条 %d ms，期间检索 %d 次，%s%n", ids.size() - half,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), searches.get(), percentiles(samples));
+    }
+
+    private static List<EmbeddingMatch<TextSegment>> search(EmbeddingStore<TextSegment> store, Embedding query,
+                                                            int topK) {
+        return store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(topK)
+                .build()).matches();
+    }
+
+    private static Set<String> idsOf(List<EmbeddingMatch<TextSegment>> matches) {
+        Set<String> ids = new HashSet<>();
+        for (EmbeddingMatch<TextSegment> match : matches) {
+            ids.add(match.embeddingId());
+        }
+        return ids;
+    }
+
+    private static String percentiles(long[] latencies) {
+        if (latencies.length == 0) {
+            return "无样本";
+        }
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        return String.format("p50 %.3f ms，p99 %.3f ms，平均 %.3f ms",
+                sorted[(int) (sorted.length * 0.5)] / 1e6,
+                sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))] / 1e6,
+                Arrays.stream(sorted).average().orElse(0) / 1e6);
+    }
+
+    /**
+     * 生成随机向量；给定聚簇中心时在随机中心附近扰动，模拟同一主题下的段落
+     */
+    private static float[][] randomVectors(Random random, int count, int dimension, float[][] centroids) {
+        float[][] vectors = new float[count][dimension];
+        for (float[] vector : vectors) {
+            float[] centroid = centroids == null ? null : centroids[random.nextInt(centroids.length)];
+            for (int d = 0; d < dimension; d++) {
+                float noise = (float) random.nextGaussian();
+                vector[d] = centroid == null ? noise : centroid[d] + noise * 0.6f;
+            }
+        }
+        return vectors;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static List<Embedding> toEmbeddings(float[][] vectors) {
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (float[] vector : vectors) {
+            embeddings.add(Embedding.from(vector));
+        }
+        return embeddings;
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+}